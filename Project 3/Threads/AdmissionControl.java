@@ -0,0 +1,179 @@
+/* OSP2 Threads - load-aware admission control
+ *
+ * do_create on its own only refuses a thread when its task is full, so
+ * a burst of creations piles onto the ready queue and every thread
+ * already admitted waits longer. With Admission set to reject or
+ * defer, do_create first asks whether the system is overloaded:
+ *
+ *  - the ready queue holds AdmitMaxReady threads or more;
+ *  - the p99 ready wait over the last AdmitWindow ticks is at least
+ *    AdmitMaxWait;
+ *  - the simulator's heap is at least AdmitMaxHeap full. OSP.jar does
+ *    not expose its frame table, so the JVM heap is the memory
+ *    pressure the scheduler can see.
+ *
+ * A limit of 0 turns that check off. Under overload, reject makes
+ * do_create fail, as a full task does. Defer creates the thread but
+ * holds it back, in creation order, until the dispatcher finds the
+ * load has fallen below AdmitResume (a fraction of each limit), at
+ * most AdmitMaxDeferred threads deep; beyond that new threads are
+ * rejected. A deferred thread is released regardless when the CPU
+ * would otherwise go idle, or once it has been held AdmitMaxHold
+ * ticks, so that deferring never turns into starvation.
+ */
+
+package osp.Threads;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+   Decides whether do_create may add a thread to the ready queue now.
+
+   @OSPProject Threads
+*/
+class AdmissionControl
+{
+    static final int ADMIT = 0;
+    static final int DEFER = 1;
+    static final int REJECT = 2;
+
+    private boolean defer;
+    private int maxReady;
+    private long maxWait;
+    private double maxHeap;
+    private double resume;
+    private int maxDeferred;
+    private long maxHold;
+
+    private long window;
+    private long windowEnd;
+    private Histogram waits = new Histogram();     // ready waits in the current window
+    private long recentWait;                       // p99 of the last complete window
+
+    private LinkedHashSet<ThreadCB> deferred = new LinkedHashSet<ThreadCB>();
+
+    /** The admission control configured in params.osp, or null if Admission is off. */
+    static AdmissionControl configured(long now)
+    {
+        String policy = SchedulerParams.getString("Scheduler.Admission", "off");
+        if(!policy.equalsIgnoreCase("defer") && !policy.equalsIgnoreCase("reject"))
+            return null;
+
+        AdmissionControl a = new AdmissionControl();
+        a.defer = policy.equalsIgnoreCase("defer");
+        a.maxReady = SchedulerParams.getInt("Scheduler.AdmitMaxReady", 0);
+        a.maxWait = SchedulerParams.getLong("Scheduler.AdmitMaxWait", 0);
+        a.maxHeap = SchedulerParams.getDouble("Scheduler.AdmitMaxHeap", 0);
+        a.resume = SchedulerParams.getDouble("Scheduler.AdmitResume", 0.8);
+        a.maxDeferred = SchedulerParams.getInt("Scheduler.AdmitMaxDeferred", 1000);
+        a.maxHold = SchedulerParams.getLong("Scheduler.AdmitMaxHold", 5000);
+        a.window = Math.max(1, SchedulerParams.getLong("Scheduler.AdmitWindow", 1000));
+        a.windowEnd = now + a.window;
+        return a;
+    }
+
+    /**
+       Whether the load is at or above the given fraction of the limits.
+    */
+    private boolean loaded(double fraction)
+    {
+        if(maxReady > 0 && ThreadCB.readyQueue.size() >= fraction * maxReady)
+            return true;
+        if(maxWait > 0 && recentWait >= fraction * maxWait)
+            return true;
+        if(maxHeap > 0)
+        {
+            Runtime rt = Runtime.getRuntime();
+            return (double)(rt.totalMemory() - rt.freeMemory()) / rt.maxMemory() >= fraction * maxHeap;
+        }
+        return false;
+    }
+
+    /** What do_create should do with a new thread now: ADMIT, DEFER or REJECT. */
+    int decide()
+    {
+        if(deferred.isEmpty() && !loaded(1))
+            return ADMIT;
+
+        // Threads already held back go first, so a newcomer waits behind them
+        if(defer && deferred.size() < maxDeferred)
+            return DEFER;
+        return REJECT;
+    }
+
+    void defer(ThreadCB thread, long now)
+    {
+        // Until makeReady, readySince is when it was held back
+        SchedTable.readySince[thread.sched.slot] = now;
+        SchedTable.enter(thread.sched.slot, SchedTable.HELD, now);
+        deferred.add(thread);
+        SchedulerStats.threadsDeferred++;
+        if(deferred.size() > SchedulerStats.maxDeferred)
+            SchedulerStats.maxDeferred = deferred.size();
+    }
+
+    boolean isDeferred(ThreadCB thread)
+    {
+        return !deferred.isEmpty() && deferred.contains(thread);
+    }
+
+    /** Forgets a deferred thread that was killed before it got in. */
+    void remove(ThreadCB thread)
+    {
+        deferred.remove(thread);
+    }
+
+    /**
+       Called by the dispatcher: hands back, oldest first, the deferred
+       threads to admit now, one at a time, or null. One comes back
+       whenever nothing else is ready or it has been held too long,
+       however loaded the system looks.
+    */
+    ThreadCB release(long now)
+    {
+        if(deferred.isEmpty())
+            return null;
+
+        Iterator<ThreadCB> oldest = deferred.iterator();
+        ThreadCB thread = oldest.next();
+        if(!ThreadCB.readyQueue.isEmpty() && loaded(resume)
+           && (maxHold <= 0 || now - SchedTable.readySince[thread.sched.slot] < maxHold))
+            return null;
+        oldest.remove();
+        return thread;
+    }
+
+    /** Records a ready wait, for the recent p99. */
+    void waited(long now, long ticks)
+    {
+        if(now >= windowEnd)
+        {
+            recentWait = waits.count() == 0 ? 0 : waits.percentile(0.99);
+            waits = new Histogram();
+            windowEnd = now - (now - windowEnd) % window + window;
+        }
+        waits.add(ticks);
+    }
+
+    void save(SchedulerCheckpoint cp) throws IOException
+    {
+        cp.out.writeLong(windowEnd);
+        cp.out.writeLong(recentWait);
+        waits.save(cp.out);
+        cp.out.writeInt(deferred.size());
+        for(ThreadCB thread : deferred)
+            cp.writeRef(thread);
+    }
+
+    void load(SchedulerCheckpoint cp) throws IOException
+    {
+        windowEnd = cp.in.readLong();
+        recentWait = cp.in.readLong();
+        waits.load(cp.in);
+        deferred.clear();
+        for(int n = cp.in.readInt(); n > 0; n--)
+            deferred.add(cp.readThread());
+    }
+}
@@ -0,0 +1,169 @@
+/* OSP2 Threads - bounded starvation
+ *
+ * Every ready thread is filed in a hashed timing wheel under the tick
+ * at which it will have waited AgingBound ticks. As the clock moves,
+ * the dispatcher sweeps the slots it passed; threads whose time is up
+ * move to an overdue list, and the dispatcher runs the longest-waiting
+ * overdue thread next, whatever the policy would have picked. This
+ * puts a ceiling on ready-queue wait under every policy, not just
+ * round robin.
+ *
+ * Filing and cancelling are O(1): the wheel lists are threaded through
+ * fields of ThreadCB itself.
+ */
+
+package osp.Threads;
+
+import java.io.IOException;
+
+/**
+   Timing wheel of ready threads, keyed by the tick they become overdue.
+
+   @OSPProject Threads
+*/
+class AgingWheel
+{
+    private static final int SLOTS = 64;        // power of two
+    private static final int OVERDUE = SLOTS;   // slot number of the overdue list
+
+    private long bound;
+    private long granularity;                   // ticks per slot
+    private ThreadCB[] heads = new ThreadCB[SLOTS + 1];
+    private long swept;                         // wheel tick swept up to
+
+    AgingWheel(long bound, long now)
+    {
+        this.bound = bound;
+        granularity = Math.max(1, bound / (SLOTS / 2));
+        swept = now / granularity;
+    }
+
+    /** Files a thread that just joined the ready queue. */
+    void schedule(ThreadCB thread, long now)
+    {
+        thread.sched.agingDue = now + bound;
+        link(thread, (int)((thread.sched.agingDue / granularity) & (SLOTS - 1)));
+    }
+
+    /** Forgets a thread that left the ready queue. */
+    void cancel(ThreadCB thread)
+    {
+        if(thread.sched.agingSlot < 0)
+            return;
+
+        if(thread.sched.agingPrev != null)
+            thread.sched.agingPrev.sched.agingNext = thread.sched.agingNext;
+        else
+            heads[thread.sched.agingSlot] = thread.sched.agingNext;
+        if(thread.sched.agingNext != null)
+            thread.sched.agingNext.sched.agingPrev = thread.sched.agingPrev;
+
+        thread.sched.agingNext = null;
+        thread.sched.agingPrev = null;
+        thread.sched.agingSlot = -1;
+    }
+
+    /**
+       Sweeps the wheel up to now and returns the overdue thread that
+       has waited longest, or null if no thread is past the bound. The
+       thread stays filed until it is cancelled.
+    */
+    ThreadCB overdue(long now)
+    {
+        long target = now / granularity;
+        long from = target - swept >= SLOTS ? target - SLOTS + 1 : swept;
+        for(long t = from; t <= target; t++)
+            expire((int)(t & (SLOTS - 1)), now);
+        swept = target;
+
+        ThreadCB oldest = null;
+        for(ThreadCB t = heads[OVERDUE]; t != null; t = t.sched.agingNext)
+        {
+            if(oldest == null || t.sched.agingDue < oldest.sched.agingDue)
+                oldest = t;
+        }
+        return oldest;
+    }
+
+    /** Writes the sweep position and every slot's list, in order, for a checkpoint. */
+    void save(SchedulerCheckpoint cp) throws IOException
+    {
+        cp.out.writeLong(bound);
+        cp.out.writeLong(swept * granularity);
+        for(int slot = 0; slot <= SLOTS; slot++)
+        {
+            int n = 0;
+            for(ThreadCB t = heads[slot]; t != null; t = t.sched.agingNext)
+                n++;
+            cp.out.writeInt(n);
+            for(ThreadCB t = heads[slot]; t != null; t = t.sched.agingNext)
+                cp.writeRef(t);
+        }
+    }
+
+    /**
+       Refills a new wheel from a checkpoint, once the ready threads are
+       back. Under the same AgingBound the lists come back as they were,
+       which matters because the overdue list breaks ties between equally
+       old threads. Under another bound each thread is filed again by
+       the tick it joined the ready queue.
+    */
+    void load(SchedulerCheckpoint cp) throws IOException
+    {
+        boolean same = cp.in.readLong() == bound;
+        swept = cp.in.readLong() / granularity;
+        for(int slot = 0; slot <= SLOTS; slot++)
+        {
+            ThreadCB[] list = new ThreadCB[cp.in.readInt()];
+            for(int i = 0; i < list.length; i++)
+                list[i] = cp.readThread();
+            for(int i = list.length - 1; i >= 0; i--)      // link() prepends
+            {
+                if(same || slot == OVERDUE)
+                {
+                    list[i].sched.agingDue = SchedTable.readySince[list[i].sched.slot] + bound;
+                    link(list[i], slot);
+                }
+                else
+                    refile(list[i]);
+            }
+        }
+    }
+
+    /**
+       Files a thread by the tick it joined the ready queue, which may
+       be further back than the wheel has swept.
+    */
+    void refile(ThreadCB thread)
+    {
+        thread.sched.agingDue = SchedTable.readySince[thread.sched.slot] + bound;
+        long tick = thread.sched.agingDue / granularity;
+        link(thread, tick < swept ? OVERDUE : (int)(tick & (SLOTS - 1)));
+    }
+
+    private void expire(int slot, long now)
+    {
+        ThreadCB t = heads[slot];
+        while(t != null)
+        {
+            ThreadCB next = t.sched.agingNext;
+            if(t.sched.agingDue <= now)
+            {
+                cancel(t);
+                link(t, OVERDUE);
+                SchedulerStats.agedThreads++;
+            }
+            t = next;
+        }
+    }
+
+    private void link(ThreadCB thread, int slot)
+    {
+        thread.sched.agingSlot = slot;
+        thread.sched.agingPrev = null;
+        thread.sched.agingNext = heads[slot];
+        if(heads[slot] != null)
+            heads[slot].sched.agingPrev = thread;
+        heads[slot] = thread;
+    }
+}
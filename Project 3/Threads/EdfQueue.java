@@ -0,0 +1,410 @@
+/* OSP2 Threads - earliest-deadline-first real-time class
+ *
+ * Sits in front of the best-effort ready queue. Threads picked out by
+ * the EdfRule<n> lines of [Scheduler] become real-time: each time such
+ * a thread becomes ready after creation or a wait, a new job is
+ * released with an absolute deadline, and ready real-time threads are
+ * always dispatched before best-effort ones, earliest deadline first.
+ *
+ * A rule reads
+ *
+ *     EdfRule<n> <match> <budget> <deadline> <period>
+ *
+ * where match is "all", "task=<id>", "priority=<p>" or "every=<k>"
+ * (threads whose ID is a multiple of k), and budget, deadline and
+ * period are in ticks. Rules that do not parse are reported and
+ * ignored. Jobs are sporadic: a new job is released no sooner than one
+ * period after the previous one, and a thread that becomes ready
+ * earlier is held back until its release: it has no deadline to
+ * compete with before then, and runs only in time that would
+ * otherwise be idle, since OSP does not let the CPU idle while any
+ * thread is ready. The timer goes off at the release. A thread
+ * is admitted only while the summed density budget / min(deadline,
+ * period) of all real-time threads stays within RealTimeUtilization;
+ * otherwise it stays best-effort.
+ *
+ * The budget is enforced: a job is charged for the CPU it uses, and
+ * one that uses up its budget before it blocks is an overrun. It
+ * loses its deadline and finishes as a best-effort thread, so the
+ * density the admission test counted on holds and a runaway real-time
+ * thread cannot starve the best-effort class.
+ */
+
+package osp.Threads;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import osp.Hardware.*;
+import osp.Utilities.*;
+
+/**
+   EDF ready queue for real-time threads, backed by a best-effort queue.
+
+   @OSPProject Threads
+*/
+class EdfQueue extends ReadyQueue
+{
+    private ReadyQueue bestEffort;
+    private ThreadHeap heap = new ThreadHeap() {
+        boolean before(ThreadCB a, ThreadCB b)
+        {
+            if(a.sched.deadline != b.sched.deadline)
+                return a.sched.deadline < b.sched.deadline;
+            return a.sched.seq < b.sched.seq;
+        }
+    };
+    private ThreadHeap held = new ThreadHeap() {      // jobs not yet released
+        boolean before(ThreadCB a, ThreadCB b)
+        {
+            if(release(a) != release(b))
+                return release(a) < release(b);
+            return a.sched.seq < b.sched.seq;
+        }
+    };
+    private long nextSeq;
+
+    /** One EdfRule line. */
+    private static class Rule
+    {
+        String match;                   // all, task, priority or every
+        int value;
+        long budget;
+        long relative;
+        long period;
+    }
+
+    private List<Rule> rules = new ArrayList<Rule>();
+    private double utilizationBound;
+    private double utilization;         // density of all admitted real-time threads
+
+    EdfQueue(ReadyQueue bestEffort)
+    {
+        this.bestEffort = bestEffort;
+        utilizationBound = SchedulerParams.getDouble("Scheduler.RealTimeUtilization", 0.8);
+        for(int n = 1; ; n++)
+        {
+            String rule = SchedulerParams.getString("Scheduler.EdfRule" + n, null);
+            if(rule == null)
+                break;
+            Rule r = parse(rule);
+            if(r != null)
+                rules.add(r);
+            else
+                MyOut.print("osp.Threads.ThreadCB", "Ignoring Scheduler.EdfRule" + n + " " + rule
+                            + ": expected <match> <budget> <deadline> <period>");
+        }
+    }
+
+    /** A rule line, or null if it is malformed. */
+    private static Rule parse(String line)
+    {
+        String[] f = line.trim().split("\\s+");
+        if(f.length != 4)
+            return null;
+        Rule r = new Rule();
+        try
+        {
+            if(f[0].equals("all"))
+                r.match = "all";
+            else
+            {
+                int eq = f[0].indexOf('=');
+                r.match = eq < 0 ? "" : f[0].substring(0, eq);
+                if(!r.match.equals("task") && !r.match.equals("priority") && !r.match.equals("every"))
+                    return null;
+                r.value = Integer.parseInt(f[0].substring(eq + 1));
+                if(r.match.equals("every") && r.value <= 0)
+                    return null;
+            }
+            r.budget = Long.parseLong(f[1]);
+            r.relative = Long.parseLong(f[2]);
+            r.period = Long.parseLong(f[3]);
+        }
+        catch(NumberFormatException e)
+        {
+            return null;
+        }
+        return r.budget > 0 && r.relative > 0 && r.period > 0 ? r : null;
+    }
+
+    /**
+       Decides once per thread whether it is real-time, applying the
+       first matching rule and the admission test.
+    */
+    private void classify(ThreadCB thread)
+    {
+        thread.sched.classified = true;
+        for(Rule r : rules)
+        {
+            if(!matches(r, thread))
+                continue;
+
+            double density = (double)r.budget / Math.min(r.relative, r.period);
+            if(utilization + density > utilizationBound)
+            {
+                SchedulerStats.rtRejected++;
+                return;
+            }
+
+            utilization += density;
+            thread.sched.budget = r.budget;
+            thread.sched.relativeDeadline = r.relative;
+            thread.sched.period = r.period;
+            thread.sched.nextRelease = HClock.get();
+            SchedulerStats.rtAdmitted++;
+            return;
+        }
+    }
+
+    private static boolean matches(Rule r, ThreadCB thread)
+    {
+        if(r.match.equals("task"))
+            return thread.getTask().getID() == r.value;
+        if(r.match.equals("priority"))
+            return thread.getPriority() == r.value;
+        if(r.match.equals("every"))
+            return thread.getID() % r.value == 0;
+        return true;
+    }
+
+    /** Admitted to the real-time class. */
+    private static boolean admitted(ThreadCB thread)
+    {
+        return thread.sched.relativeDeadline > 0;
+    }
+
+    /** Admitted, and its current job has not overrun its budget. */
+    private static boolean realTime(ThreadCB thread)
+    {
+        return thread.sched.relativeDeadline > 0 && !thread.sched.overrun;
+    }
+
+    private static long release(ThreadCB thread)
+    {
+        return thread.sched.deadline - thread.sched.relativeDeadline;
+    }
+
+    /** Moves the jobs whose release time has come to the deadline heap. */
+    private void releaseDue()
+    {
+        long now = HClock.get();
+        while(!held.isEmpty() && release(held.peek()) <= now)
+            heap.add(held.removeAt(0));
+    }
+
+    void add(ThreadCB thread)
+    {
+        if(!thread.sched.classified)
+            classify(thread);
+
+        if(admitted(thread) && !thread.sched.jobActive)
+        {
+            long release = Math.max(HClock.get(), thread.sched.nextRelease);
+            thread.sched.deadline = release + thread.sched.relativeDeadline;
+            thread.sched.nextRelease = release + thread.sched.period;
+            thread.sched.jobActive = true;
+            thread.sched.jobUsed = 0;
+            thread.sched.overrun = false;
+            SchedulerStats.rtJobs++;
+        }
+
+        if(!realTime(thread))
+        {
+            bestEffort.add(thread);
+            return;
+        }
+        thread.sched.seq = nextSeq++;
+        if(release(thread) > HClock.get())
+            held.add(thread);
+        else
+            heap.add(thread);
+    }
+
+    void remove(ThreadCB thread)
+    {
+        if(heap.contains(thread))
+            heap.remove(thread);
+        else if(held.contains(thread))
+            held.remove(thread);
+        else
+            bestEffort.remove(thread);
+    }
+
+    boolean contains(ThreadCB thread)
+    {
+        return heap.contains(thread) || held.contains(thread) || bestEffort.contains(thread);
+    }
+
+    void removeForced(ThreadCB thread)
+    {
+        if(heap.contains(thread) || held.contains(thread))
+            remove(thread);
+        else
+            bestEffort.removeForced(thread);
+    }
+
+    boolean isEmpty()
+    {
+        return heap.isEmpty() && held.isEmpty() && bestEffort.isEmpty();
+    }
+
+    int size()
+    {
+        return heap.size() + held.size() + bestEffort.size();
+    }
+
+    ThreadCB removeNext(ThreadCB preempted)
+    {
+        releaseDue();
+        if(!heap.isEmpty())
+            return heap.removeAt(0);
+        if(!bestEffort.isEmpty())
+            return bestEffort.removeNext(preempted);
+        return held.removeAt(0);                // early, in otherwise idle time
+    }
+
+    long heldFor(long now)
+    {
+        releaseDue();
+        return held.isEmpty() ? 0 : release(held.peek()) - now;
+    }
+
+    /** A real-time job on the CPU before its release, which anything else ready preempts. */
+    private static boolean early(ThreadCB thread)
+    {
+        return realTime(thread) && release(thread) > HClock.get();
+    }
+
+    /** Charges a real-time job against its budget, demoting it once that is spent. */
+    void charge(ThreadCB thread, long ticks)
+    {
+        if(!realTime(thread))
+        {
+            bestEffort.charge(thread, ticks);
+            return;
+        }
+        thread.sched.jobUsed += ticks;
+        if(thread.sched.jobUsed >= thread.sched.budget)
+        {
+            thread.sched.overrun = true;
+            SchedulerStats.rtOverruns++;
+        }
+    }
+
+    /**
+       A real-time job must come off the CPU when its budget is spent,
+       not at the next quantum expiry, so the timer goes off then.
+    */
+    long budgetLeft(ThreadCB running)
+    {
+        return realTime(running) ? running.sched.budget - running.sched.jobUsed : 0;
+    }
+
+    /**
+       A real-time thread gives way only to an earlier deadline; a
+       best-effort one to any real-time thread, or as its policy says.
+    */
+    boolean preempts(ThreadCB running)
+    {
+        releaseDue();
+        if(!heap.isEmpty())
+            return early(running) || !realTime(running) || heap.before(heap.peek(), running);
+        if(early(running))
+            return !bestEffort.isEmpty();
+        return !realTime(running) && !bestEffort.isEmpty() && bestEffort.preempts(running);
+    }
+
+    /**
+       A real-time job preempts a best-effort thread, or one whose
+       deadline is later than its own by more than the granularity.
+    */
+    boolean wakeupPreempts(ThreadCB running, long ran, ThreadCB woken, long granularity)
+    {
+        if(realTime(woken))
+        {
+            if(held.contains(woken))
+                return early(running);
+            return early(running) || !realTime(running)
+                || woken.sched.deadline + granularity < running.sched.deadline;
+        }
+        return early(running) || (!realTime(running) && bestEffort.wakeupPreempts(running, ran, woken, granularity));
+    }
+
+    /** A real-time job finishes when its thread blocks, overrun or not. */
+    void blocked(ThreadCB thread)
+    {
+        if(!realTime(thread))
+            bestEffort.blocked(thread);
+        if(admitted(thread))
+            finishJob(thread);
+    }
+
+    void killed(ThreadCB thread)
+    {
+        if(!realTime(thread))
+            bestEffort.killed(thread);
+        if(admitted(thread))
+        {
+            finishJob(thread);
+            utilization -= (double)thread.sched.budget / Math.min(thread.sched.relativeDeadline, thread.sched.period);
+        }
+    }
+
+    void report(StringBuffer buf)
+    {
+        bestEffort.report(buf);
+    }
+
+    void collect(List<ThreadCB> out)
+    {
+        for(int i = 0; i < heap.size(); i++)
+            out.add(heap.get(i));
+        for(int i = 0; i < held.size(); i++)
+            out.add(held.get(i));
+        bestEffort.collect(out);
+    }
+
+    void save(SchedulerCheckpoint cp) throws IOException
+    {
+        cp.out.writeLong(nextSeq);
+        cp.out.writeDouble(utilization);
+        bestEffort.save(cp);
+    }
+
+    void load(SchedulerCheckpoint cp) throws IOException
+    {
+        nextSeq = cp.in.readLong();
+        utilization = cp.in.readDouble();
+        bestEffort.load(cp);
+    }
+
+    /** Restores without releasing a new job; the saved one is still active. */
+    void restore(ThreadCB thread)
+    {
+        if(!realTime(thread))
+            bestEffort.restore(thread);
+        else if(release(thread) > HClock.get())
+            held.add(thread);
+        else
+            heap.add(thread);
+    }
+
+    private void finishJob(ThreadCB thread)
+    {
+        if(!thread.sched.jobActive)
+            return;
+
+        thread.sched.jobActive = false;
+        thread.sched.jobUsed = 0;
+        thread.sched.overrun = false;
+        long late = HClock.get() - thread.sched.deadline;
+        if(late > 0)
+        {
+            SchedulerStats.rtMisses++;
+            if(late > SchedulerStats.rtMaxLateness)
+                SchedulerStats.rtMaxLateness = late;
+        }
+    }
+}
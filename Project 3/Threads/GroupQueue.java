@@ -0,0 +1,349 @@
+/* OSP2 Threads - two-level task group scheduling
+ *
+ * With a flat ready queue every thread competes on its own, so a task
+ * with fifteen threads gets fifteen times the CPU of a task with one.
+ * With TaskGroups on, the CPU is first shared among tasks and only
+ * then among the threads of each task.
+ *
+ * Each task with ready threads has a group: its own run queue, built
+ * for the configured Policy, and stride-scheduling state of its own.
+ * The group's tickets come from the task's priority, the same way
+ * StrideQueue derives a thread's, and every tick one of its threads
+ * runs is charged to the group as well as to the thread. The group with
+ * the smallest pass supplies the next thread, so tasks get CPU in
+ * proportion to their tickets however many threads they have; inside
+ * the group the task's own run queue picks which one.
+ */
+
+package osp.Threads;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import osp.Tasks.*;
+
+/**
+   Ready queue that divides the CPU among tasks, then among threads.
+
+   @OSPProject Threads
+*/
+class GroupQueue extends ReadyQueue
+{
+    private static final int REPORTED = 8;      // tasks listed in the summary, most CPU first
+
+    /** The scheduler's view of one task. */
+    static class TaskGroup
+    {
+        TaskCB task;
+        ReadyQueue queue;               // the task's ready threads, in Policy order
+        long tickets;
+        long stride;
+        long pass;
+        long seq;                       // FIFO tie break between equal passes
+        long usage;                     // ticks of CPU the task's threads have had
+    }
+
+    private Map<TaskCB,TaskGroup> groups = new IdentityHashMap<TaskCB,TaskGroup>();
+    private TreeSet<TaskGroup> ready = new TreeSet<TaskGroup>(new Comparator<TaskGroup>() {
+        public int compare(TaskGroup a, TaskGroup b)
+        {
+            if(a.pass != b.pass)
+                return a.pass < b.pass ? -1 : 1;
+            return a.seq < b.seq ? -1 : a.seq == b.seq ? 0 : 1;
+        }
+    });
+    private long nextSeq;
+    private long globalPass;            // pass of the group dispatched last
+    private int size;
+    private int retired;                // groups forgotten since their task's threads all died
+    private long retiredUsage;          // and the CPU they had had
+
+    private String policy;
+    private int quantum;
+    private int baseTickets;
+    private int ticketsPerPriority;
+
+    GroupQueue(String policy)
+    {
+        this.policy = policy;
+        quantum = SchedulerParams.getInt("Scheduler.Quantum", 50);
+        baseTickets = SchedulerParams.getInt("Scheduler.BaseTickets", 100);
+        ticketsPerPriority = SchedulerParams.getInt("Scheduler.TicketsPerPriority", 10);
+    }
+
+    /** The thread's group, created the first time one of its task's threads is seen. */
+    private TaskGroup groupOf(ThreadCB thread)
+    {
+        if(thread.sched.group != null)
+            return thread.sched.group;
+
+        TaskCB task = thread.getTask();
+        TaskGroup group = groups.get(task);
+        if(group == null)
+        {
+            // A unique tie break from the start: the EDF class charges
+            // an overrunning job's group without ever adding it, and a
+            // group left at seq 0 would compare equal to the first one
+            group = newGroup(task);
+            group.pass = globalPass;
+            group.seq = nextSeq++;
+        }
+        thread.sched.group = group;
+        return group;
+    }
+
+    private TaskGroup newGroup(TaskCB task)
+    {
+        TaskGroup group = new TaskGroup();
+        group.task = task;
+        group.queue = forPolicy(policy);
+        group.tickets = Math.max(1, baseTickets + task.getPriority() * ticketsPerPriority);
+        group.stride = StrideQueue.STRIDE1 / group.tickets;
+        groups.put(task, group);
+        return group;
+    }
+
+    /**
+       A group that had nothing ready starts no further behind than the
+       last dispatched pass, so an idle task does not bank CPU time.
+    */
+    void add(ThreadCB thread)
+    {
+        TaskGroup group = groupOf(thread);
+        if(group.queue.isEmpty())
+        {
+            if(group.pass < globalPass)
+                group.pass = globalPass;
+            group.seq = nextSeq++;
+            ready.add(group);
+        }
+        group.queue.add(thread);
+        size++;
+    }
+
+    void remove(ThreadCB thread)
+    {
+        TaskGroup group = thread.sched.group;
+        if(group == null || !group.queue.contains(thread))
+            return;
+
+        group.queue.remove(thread);
+        size--;
+        if(group.queue.isEmpty())
+            ready.remove(group);
+    }
+
+    boolean contains(ThreadCB thread)
+    {
+        TaskGroup group = thread.sched.group;
+        return group != null && group.queue.contains(thread);
+    }
+
+    /** Advances the global pass as StrideQueue.removeForced() does. */
+    void removeForced(ThreadCB thread)
+    {
+        TaskGroup group = thread.sched.group;
+        if(group == null || !group.queue.contains(thread))
+            return;
+
+        long reached = Math.min(ready.first().pass, group.pass);
+        group.queue.removeForced(thread);
+        size--;
+        if(group.queue.isEmpty())
+            ready.remove(group);
+        if(reached > globalPass)
+            globalPass = reached;
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    ThreadCB removeNext(ThreadCB preempted)
+    {
+        TaskGroup group = ready.first();
+        ThreadCB thread = group.queue.removeNext(preempted != null && preempted.sched.group == group
+                                                 ? preempted : null);
+        size--;
+        if(group.queue.isEmpty())
+            ready.remove(group);
+        if(group.pass > globalPass)
+            globalPass = group.pass;
+        return thread;
+    }
+
+    /** Charges the thread inside its task, and the task among the others. */
+    void charge(ThreadCB thread, long ticks)
+    {
+        TaskGroup group = groupOf(thread);
+        group.queue.charge(thread, ticks);
+        group.usage += ticks;
+
+        // The pass is the set's sort key; never change it while the group is in the set
+        boolean queued = ready.remove(group);
+        group.pass += group.stride * ticks / quantum;
+        if(queued)
+            ready.add(group);
+    }
+
+    /**
+       The running thread keeps the CPU while its task still has the
+       smallest pass and its task's own policy lets it go on.
+    */
+    boolean preempts(ThreadCB running)
+    {
+        if(ready.isEmpty())
+            return false;
+        TaskGroup mine = groupOf(running);
+        TaskGroup next = ready.first();
+        if(next != mine)
+            return ready.contains(mine) || next.pass <= mine.pass;
+        return mine.queue.isEmpty() || mine.queue.preempts(running);
+    }
+
+    /** Between tasks by group pass, as StrideQueue compares threads; within one, as its policy says. */
+    boolean wakeupPreempts(ThreadCB running, long ran, ThreadCB woken, long granularity)
+    {
+        TaskGroup mine = groupOf(running);
+        TaskGroup theirs = groupOf(woken);
+        if(mine == theirs)
+            return mine.queue.wakeupPreempts(running, ran, woken, granularity);
+        long reached = mine.pass + mine.stride * ran / quantum;
+        return theirs.pass + theirs.stride * granularity / quantum < reached;
+    }
+
+    void blocked(ThreadCB thread)
+    {
+        groupOf(thread).queue.blocked(thread);
+    }
+
+    /** Forgets a task's group once its last thread dies. */
+    void killed(ThreadCB thread)
+    {
+        TaskGroup group = groupOf(thread);
+        group.queue.killed(thread);
+        if(group.queue.isEmpty() && thread.getTask().getThreadCount() <= 1
+           && groups.remove(group.task) != null)
+        {
+            retired++;
+            retiredUsage += group.usage;
+        }
+    }
+
+    /**
+       How the CPU the live tasks have had is split among them, against
+       how their tickets are. A task that arrived late or spent long
+       with nothing ready falls short of its ticket share without being
+       treated unfairly, so the gap is a guide rather than a verdict.
+    */
+    void report(StringBuffer buf)
+    {
+        List<TaskGroup> live = new ArrayList<TaskGroup>(groups.values());
+        long usage = 0, tickets = 0;
+        for(TaskGroup group : live)
+        {
+            usage += group.usage;
+            tickets += group.tickets;
+        }
+        buf.append("\n  task groups live/retired: ").append(live.size()).append("/").append(retired)
+           .append(" (CPU ").append(usage).append("/").append(retiredUsage).append(")");
+        if(usage == 0)
+            return;
+
+        Collections.sort(live, new Comparator<TaskGroup>() {
+            public int compare(TaskGroup a, TaskGroup b)
+            {
+                if(a.usage != b.usage)
+                    return Long.compare(b.usage, a.usage);
+                return a.task.getID() - b.task.getID();
+            }
+        });
+        double worst = 0;
+        TaskGroup furthest = null;
+        for(TaskGroup group : live)
+        {
+            double gap = Math.abs((double)group.usage / usage - (double)group.tickets / tickets);
+            if(furthest == null || gap > worst)
+            {
+                worst = gap;
+                furthest = group;
+            }
+        }
+        buf.append("\n  largest CPU/ticket share gap: ").append(String.format("%.1f%%", 100 * worst))
+           .append(" (task ").append(furthest.task.getID()).append(")");
+        for(int i = 0; i < live.size() && i < REPORTED; i++)
+        {
+            TaskGroup group = live.get(i);
+            buf.append(String.format("%n    task %-6d %10d ticks %6.1f%% of CPU %6.1f%% of tickets",
+                                     group.task.getID(), group.usage,
+                                     100.0 * group.usage / usage, 100.0 * group.tickets / tickets));
+        }
+    }
+
+    /** Groups in pass order, each group's threads in its own queue's order. */
+    void collect(List<ThreadCB> out)
+    {
+        for(TaskGroup group : ready)
+            group.queue.collect(out);
+    }
+
+    /** Every known group, then the run queue state of each. */
+    void save(SchedulerCheckpoint cp) throws IOException
+    {
+        cp.out.writeLong(nextSeq);
+        cp.out.writeLong(globalPass);
+        cp.out.writeInt(retired);
+        cp.out.writeLong(retiredUsage);
+        List<TaskGroup> known = new ArrayList<TaskGroup>(groups.values());
+        cp.out.writeInt(known.size());
+        for(TaskGroup group : known)
+        {
+            cp.writeRef(group.task);
+            cp.out.writeLong(group.pass);
+            cp.out.writeLong(group.seq);
+            cp.out.writeLong(group.usage);
+            group.queue.save(cp);
+        }
+    }
+
+    void load(SchedulerCheckpoint cp) throws IOException
+    {
+        nextSeq = cp.in.readLong();
+        globalPass = cp.in.readLong();
+        retired = cp.in.readInt();
+        retiredUsage = cp.in.readLong();
+        for(int n = cp.in.readInt(); n > 0; n--)
+        {
+            TaskCB task = cp.readTask();
+            TaskGroup group = task != null ? newGroup(task) : new TaskGroup();
+            group.pass = cp.in.readLong();
+            group.seq = cp.in.readLong();
+            group.usage = cp.in.readLong();
+            if(group.queue == null)
+                group.queue = forPolicy(policy);
+            group.queue.load(cp);
+        }
+    }
+
+    /** Keeps the group's saved pass and tie break. */
+    void restore(ThreadCB thread)
+    {
+        TaskGroup group = groupOf(thread);
+        if(group.queue.isEmpty())
+            ready.add(group);
+        group.queue.restore(thread);
+        size++;
+    }
+}
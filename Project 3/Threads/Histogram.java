@@ -0,0 +1,125 @@
+/* OSP2 Threads - latency histogram
+ *
+ * Log-linear buckets: one per tick below 32, then 16 per power of two.
+ * Percentiles come out within about 6% of the exact value, in a fixed
+ * amount of space however many samples are recorded.
+ */
+
+package osp.Threads;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+   Distribution of tick counts, for percentiles.
+
+   @OSPProject Threads
+*/
+class Histogram
+{
+    private static final int SUB = 16;                  // buckets per power of two
+    private static final int LINEAR = 2 * SUB;          // values recorded exactly
+
+    private long[] counts = new long[LINEAR + (63 - 5) * SUB];
+    private long count;
+    private long total;
+    private long max;
+
+    void add(long value)
+    {
+        if(value < 0)
+            value = 0;
+        counts[index(value)]++;
+        count++;
+        total += value;
+        if(value > max)
+            max = value;
+    }
+
+    long count()
+    {
+        return count;
+    }
+
+    double mean()
+    {
+        return count == 0 ? 0 : (double)total / count;
+    }
+
+    long max()
+    {
+        return max;
+    }
+
+    /**
+       The smallest recorded value at or below which a fraction p of
+       the samples lie, rounded up to its bucket's upper end.
+    */
+    long percentile(double p)
+    {
+        long rank = (long)Math.ceil(p * count);
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if(seen >= rank && seen > 0)
+                return Math.min(max, upper(i));
+        }
+        return max;
+    }
+
+    private static int index(long v)
+    {
+        if(v < LINEAR)
+            return (int)v;
+        int e = 63 - Long.numberOfLeadingZeros(v);     // v in [2^e, 2^(e+1)), e >= 5
+        int sub = (int)(v >>> (e - 4)) - SUB;
+        return LINEAR + (e - 5) * SUB + sub;
+    }
+
+    private static long upper(int i)
+    {
+        if(i < LINEAR)
+            return i;
+        int e = (i - LINEAR) / SUB + 5;
+        int sub = (i - LINEAR) % SUB;
+        return ((long)(SUB + sub + 1) << (e - 4)) - 1;
+    }
+
+    /** Writes the non-empty buckets, for a checkpoint. */
+    void save(DataOutputStream out) throws IOException
+    {
+        int used = 0;
+        for(long c : counts)
+        {
+            if(c != 0)
+                used++;
+        }
+        out.writeLong(total);
+        out.writeLong(max);
+        out.writeInt(used);
+        for(int i = 0; i < counts.length; i++)
+        {
+            if(counts[i] != 0)
+            {
+                out.writeShort(i);
+                out.writeLong(counts[i]);
+            }
+        }
+    }
+
+    void load(DataInputStream in) throws IOException
+    {
+        counts = new long[counts.length];
+        count = 0;
+        total = in.readLong();
+        max = in.readLong();
+        for(int n = in.readInt(); n > 0; n--)
+        {
+            int i = in.readShort();
+            counts[i] = in.readLong();
+            count += counts[i];
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/* OSP2 Threads - background work in idle time
+ *
+ * When do_dispatch finds nothing ready the CPU idles until the next
+ * thread turns up. With IdleWork on, subsystems can register jobs that
+ * use that time instead: each job is a series of small steps, and each
+ * step is taken to cost a fixed number of ticks.
+ *
+ * The steps run on the dispatcher's idle path. A dispatch that finds
+ * nothing ready takes the next step, round robin across the jobs, and
+ * sets the timer to go off when that step's ticks are up; if nothing
+ * is ready then either, the dispatch OSP makes after the interrupt
+ * takes the following step, and so on while the queue stays empty. A
+ * thread that turns up mid-step is dispatched at once, as it would be
+ * without IdleWork. The step's effect stands, but only the ticks it had
+ * before the thread came are counted as reclaimed.
+ *
+ * The simulator charges no time for the Java code itself, so the step
+ * costs are a model of what the work would take on a real CPU.
+ *
+ * Two jobs are built in:
+ *  - entity pool refill (IdleEntityTicks per entity): tops up the
+ *    SchedEntity pool so that do_create does not allocate;
+ *  - statistics reports (IdleReportTicks): the log report due at a
+ *    snapshot tick is written in idle time rather than by the dispatch
+ *    that passes the snapshot, and only written on the spot if the
+ *    next snapshot comes round first.
+ */
+
+package osp.Threads;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+   Low-priority jobs run in the CPU's idle time.
+
+   @OSPProject Threads
+*/
+class IdleWork
+{
+    /** A job that can be done a step at a time. */
+    interface Job
+    {
+        /** Whether there is a step to take. */
+        boolean pending();
+
+        void step();
+    }
+
+    private List<Job> jobs = new ArrayList<Job>();
+    private List<Integer> costs = new ArrayList<Integer>();
+    private int next;                   // job to try first, for round robin
+    private long stepStart = -1;        // when the step in progress began, -1 if none
+    private int stepCost;               // and the ticks it is taken to cost
+
+    /** The idle work configured in params.osp, with the built-in jobs, or null if IdleWork is off. */
+    static IdleWork configured()
+    {
+        if(!SchedulerParams.getFlag("Scheduler.IdleWork", false))
+            return null;
+
+        IdleWork work = new IdleWork();
+        work.register(new Job() {
+            public boolean pending()
+            {
+                return SchedEntity.poolSpace() > 0;
+            }
+
+            public void step()
+            {
+                SchedEntity.refill(SchedEntity.pooled() + 1);
+                SchedulerStats.entitiesAllocated++;
+            }
+        }, SchedulerParams.getInt("Scheduler.IdleEntityTicks", 2));
+        work.register(new Job() {
+            public boolean pending()
+            {
+                return SchedulerStats.reportPending;
+            }
+
+            public void step()
+            {
+                SchedulerStats.report();
+            }
+        }, SchedulerParams.getInt("Scheduler.IdleReportTicks", 20));
+        return work;
+    }
+
+    /** Adds a job whose steps each take the given number of idle ticks. */
+    void register(Job job, int ticksPerStep)
+    {
+        jobs.add(job);
+        costs.add(Math.max(1, ticksPerStep));
+    }
+
+    /**
+       The dispatcher found nothing to run: takes the next step unless
+       one is still in progress.
+
+       @return ticks until the step in progress is done, for the timer,
+       or 0 if there is no work to do
+    */
+    long idle(long now)
+    {
+        if(stepStart >= 0 && now < stepStart + stepCost)
+            return stepStart + stepCost - now;
+        finish(now);
+
+        for(int i = 0; i < jobs.size(); i++)
+        {
+            int j = (next + i) % jobs.size();
+            if(!jobs.get(j).pending())
+                continue;
+
+            jobs.get(j).step();
+            SchedulerStats.idleSteps++;
+            next = (j + 1) % jobs.size();
+            stepStart = now;
+            stepCost = costs.get(j);
+            return stepCost;
+        }
+        return 0;
+    }
+
+    /** The dispatcher is about to run a thread, which ends any step in progress. */
+    void busy(long now)
+    {
+        finish(now);
+    }
+
+    /** Counts the ticks the step in progress had, cut short if a thread came first. */
+    private void finish(long now)
+    {
+        if(stepStart < 0)
+            return;
+        long ran = Math.min(stepCost, now - stepStart);
+        SchedulerStats.idleTicksReclaimed += ran;
+        if(ran < stepCost)
+            SchedulerStats.idleStepsCut++;
+        stepStart = -1;
+    }
+
+    void save(SchedulerCheckpoint cp) throws IOException
+    {
+        cp.out.writeLong(stepStart);
+        cp.out.writeInt(stepCost);
+        cp.out.writeInt(next);
+    }
+
+    void load(SchedulerCheckpoint cp) throws IOException
+    {
+        stepStart = cp.in.readLong();
+        stepCost = cp.in.readInt();
+        next = cp.in.readInt();
+    }
+}
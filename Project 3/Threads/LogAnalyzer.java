@@ -0,0 +1,388 @@
+/* OSP2 Threads - streaming OSP.log analyzer
+ *
+ * With ModuleOutputFlag 1 the log OSP writes grows to gigabytes, and
+ * reading it back a line at a time takes longer than the simulation
+ * did. This reads it through memory-mapped windows instead, a byte at
+ * a time into one reusable line buffer, so nothing the size of the log
+ * ever lands on the heap.
+ *
+ * Each record starts with a "Sim: tick [module]" header; the lines
+ * under it that report a thread changing state drive a small state
+ * machine per thread, indexed by thread id:
+ *
+ *     Created new thread Thread(X:Y/RD)        ready
+ *     Dispatching Thread(X:Y/RU)               running; the thread it
+ *                                              replaces is ready again
+ *     Entering suspend(Thread(X:Y/S),...)      waiting
+ *     Leaving resume(Thread(X:Y/S))            whatever S says
+ *     Entering kill(Thread(X:Y/S))             gone
+ *     After do_dispatch(): CPU is idle         idle until the next dispatch
+ *
+ * "Leaving suspend" is no use: OSP logs it when the call it was made
+ * from returns, which may be after the thread was resumed.
+ *
+ * From that it reports ready waits and turnarounds (from becoming ready
+ * after creation or a wait until the thread blocks while running), as
+ * ThreadCB measures them, dispatches, context switches and idle
+ * periods; -threads adds a line per thread and -timeline writes every
+ * state change as CSV.
+ *
+ * With -follow the analyzer keeps reading a log that is still being
+ * written, printing a report every few seconds, and stops at the end
+ * of the simulation.
+ *
+ *     make analyze OPTS="[-follow] [-threads] [-timeline states.csv] [OSP.log]"
+ */
+
+package osp.Threads;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+   Scheduler metrics computed from an OSP log, streamed from a mapping.
+
+   @OSPProject Threads
+*/
+public class LogAnalyzer
+{
+    static final int NONE = 0;
+    static final int READY = 1;
+    static final int RUNNING = 2;
+    static final int WAITING = 3;
+    static final int KILLED = 4;
+    private static final String[] NAMES = { "-", "ready", "running", "waiting", "killed" };
+
+    private static final int WINDOW = 64 << 20;         // bytes mapped at a time
+    private static final int MAX_LINE = 1024;           // longer lines are cut, which no match needs
+
+    private static final byte[] CREATED = bytes("\tCreated new thread Thread(");
+    private static final byte[] DISPATCHING = bytes("\tDispatching Thread(");
+    private static final byte[] SUSPENDED = bytes("\tEntering suspend(Thread(");
+    private static final byte[] RESUMED = bytes("\tLeaving resume(Thread(");
+    private static final byte[] KILLED_LINE = bytes("\tEntering kill(Thread(");
+    private static final byte[] IDLE = bytes("\tAfter do_dispatch(): CPU is idle");
+    private static final byte[] END = bytes("\tSimulation End Time");
+
+    private byte[] line = new byte[MAX_LINE];
+    private int length;
+    private long offset;                // bytes of the log consumed so far
+    private long tick;
+    private boolean ended;
+
+    // Per-thread columns, indexed by thread id
+    private int[] state = new int[256];
+    private long[] since = new long[256];
+    private long[] created = new long[256];
+    private long[] burstStart = new long[256];
+    private long[][] ticksIn = new long[KILLED][256];   // ticks spent ready, running, waiting
+    private int[] dispatchCount = new int[256];
+    private int threads;                // one past the highest id seen
+
+    private int running = -1;
+    private long idleSince = -1;
+    private long createdCount, killedCount, dispatches, contextSwitches;
+    private long idleTicks;
+
+    private Histogram readyWaits = new Histogram();
+    private Histogram turnarounds = new Histogram();
+    private Histogram idlePeriods = new Histogram();
+
+    private PrintWriter timeline;
+
+    private static byte[] bytes(String s)
+    {
+        byte[] b = new byte[s.length()];
+        for(int i = 0; i < b.length; i++)
+            b[i] = (byte)s.charAt(i);
+        return b;
+    }
+
+    /**
+       Reads whatever the file holds beyond what has been read already.
+       A line cut off at the end is kept until the rest arrives.
+
+       @return whether there was anything new
+    */
+    boolean read(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        if(size <= offset)
+            return false;
+        while(offset < size)
+        {
+            long n = Math.min(WINDOW, size - offset);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, offset, n);
+            for(int i = 0; i < n; i++)
+            {
+                byte b = map.get(i);
+                if(b == '\n')
+                {
+                    parse();
+                    length = 0;
+                }
+                else if(b != '\r' && length < MAX_LINE)
+                    line[length++] = b;
+            }
+            offset += n;
+        }
+        return true;
+    }
+
+    private boolean startsWith(byte[] prefix)
+    {
+        if(length < prefix.length)
+            return false;
+        for(int i = 0; i < prefix.length; i++)
+        {
+            if(line[i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    private void parse()
+    {
+        if(length == 0)
+            return;
+        if(line[0] != '\t')
+        {
+            // "Sim: 123 [module]", "Mod: ..." or "My:  ..."
+            int i = 0;
+            while(i < length && line[i] != ':')
+                i++;
+            while(++i < length && line[i] == ' ')
+                ;
+            if(i < length && line[i] >= '0' && line[i] <= '9')
+            {
+                long t = 0;
+                for(; i < length && line[i] >= '0' && line[i] <= '9'; i++)
+                    t = 10 * t + line[i] - '0';
+                tick = t;
+            }
+            return;
+        }
+
+        if(startsWith(DISPATCHING))
+            dispatched(threadId(DISPATCHING.length));
+        else if(startsWith(SUSPENDED))
+            changed(threadId(SUSPENDED.length), WAITING);
+        else if(startsWith(RESUMED))
+            changed(threadId(RESUMED.length), statusAfter(RESUMED.length));
+        else if(startsWith(CREATED))
+        {
+            int id = threadId(CREATED.length);
+            createdCount++;
+            created[id] = tick;
+            changed(id, READY);
+        }
+        else if(startsWith(KILLED_LINE))
+        {
+            killedCount++;
+            changed(threadId(KILLED_LINE.length), KILLED);
+        }
+        else if(startsWith(IDLE))
+        {
+            if(idleSince < 0)
+                idleSince = tick;
+        }
+        else if(startsWith(END))
+            ended = true;
+    }
+
+    /** The X of "X:Y/S)" at position i, making room for it in the columns. */
+    private int threadId(int i)
+    {
+        int id = 0;
+        for(; i < length && line[i] >= '0' && line[i] <= '9'; i++)
+            id = 10 * id + line[i] - '0';
+        if(id >= state.length)
+        {
+            int n = Math.max(2 * state.length, id + 1);
+            state = Arrays.copyOf(state, n);
+            since = Arrays.copyOf(since, n);
+            created = Arrays.copyOf(created, n);
+            burstStart = Arrays.copyOf(burstStart, n);
+            dispatchCount = Arrays.copyOf(dispatchCount, n);
+            for(int s = 0; s < ticksIn.length; s++)
+                ticksIn[s] = Arrays.copyOf(ticksIn[s], n);
+        }
+        if(id >= threads)
+        {
+            Arrays.fill(burstStart, threads, id + 1, -1);
+            threads = id + 1;
+        }
+        return id;
+    }
+
+    /** The state in "X:Y/S)" at position i: RD, RU, Wn or KL. */
+    private int statusAfter(int i)
+    {
+        while(i < length && line[i] != '/')
+            i++;
+        if(i + 1 >= length)
+            return NONE;
+        switch(line[i+1])
+        {
+            case 'R': return i + 2 < length && line[i+2] == 'U' ? RUNNING : READY;
+            case 'W': return WAITING;
+            case 'K': return KILLED;
+            default:  return NONE;
+        }
+    }
+
+    private void dispatched(int id)
+    {
+        if(idleSince >= 0)
+        {
+            idlePeriods.add(tick - idleSince);
+            idleTicks += tick - idleSince;
+            idleSince = -1;
+        }
+        if(running != id)
+        {
+            contextSwitches++;
+            if(running >= 0)
+                changed(running, READY);
+        }
+        else
+            readyWaits.add(0);          // put straight back, as ThreadCB counts it
+        dispatches++;
+        dispatchCount[id]++;
+        changed(id, RUNNING);
+    }
+
+    /** Moves a thread into a new state at the current tick. */
+    private void changed(int id, int to)
+    {
+        int from = state[id];
+        if(from == to || from == KILLED || to == NONE)
+            return;
+
+        long spent = tick - since[id];
+        if(from != NONE)
+            ticksIn[from][id] += spent;
+        if(from == READY && to == RUNNING)
+            readyWaits.add(spent);
+        if(to == READY && from != RUNNING)
+            burstStart[id] = tick;
+        if(to == WAITING || to == KILLED)
+        {
+            if(from == RUNNING && to == WAITING && burstStart[id] >= 0)
+                turnarounds.add(tick - burstStart[id]);
+            burstStart[id] = -1;
+        }
+
+        if(to == RUNNING)
+            running = id;
+        else if(running == id)
+            running = -1;
+        state[id] = to;
+        since[id] = tick;
+
+        if(timeline != null)
+            timeline.println(tick + "," + id + "," + NAMES[to]);
+    }
+
+    private static String distribution(Histogram h)
+    {
+        return h.count() + " (mean " + (float)h.mean() + ", p50 " + h.percentile(0.5)
+            + ", p99 " + h.percentile(0.99) + ", max " + h.max() + ")";
+    }
+
+    String report(String name, boolean perThread)
+    {
+        long idle = idleTicks + (idleSince >= 0 ? tick - idleSince : 0);
+        StringBuffer buf = new StringBuffer("Log analysis of " + name + ":");
+        buf.append("\n  bytes read: ").append(offset);
+        buf.append("\n  last tick: ").append(tick).append(ended ? "" : " (still running)");
+        buf.append("\n  threads created/killed: ").append(createdCount).append("/").append(killedCount);
+        buf.append("\n  dispatches: ").append(dispatches);
+        buf.append("\n  context switches: ").append(contextSwitches);
+        buf.append("\n  ready waits: ").append(distribution(readyWaits));
+        buf.append("\n  turnarounds: ").append(distribution(turnarounds));
+        buf.append("\n  idle periods: ").append(distribution(idlePeriods));
+        buf.append("\n  idle ratio: ").append(tick <= 0 ? 0 : (float)idle / tick);
+
+        if(perThread)
+        {
+            buf.append(String.format("%n%8s %8s %-8s %10s %10s %10s %10s",
+                                     "thread", "created", "state", "ready", "running", "waiting", "dispatches"));
+            for(int id = 0; id < threads; id++)
+            {
+                if(state[id] == NONE)
+                    continue;
+                long[] t = { 0, ticksIn[READY][id], ticksIn[RUNNING][id], ticksIn[WAITING][id] };
+                if(state[id] != KILLED)
+                    t[state[id]] += tick - since[id];           // the current stay so far
+                buf.append(String.format("%n%8d %8d %-8s %10d %10d %10d %10d", id, created[id],
+                                         NAMES[state[id]], t[READY], t[RUNNING], t[WAITING], dispatchCount[id]));
+            }
+        }
+        return buf.toString();
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        boolean follow = false, perThread = false;
+        long every = 5000;
+        String timelineFile = null;
+        File log = new File("OSP.log");
+
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("-follow"))
+                follow = true;
+            else if(args[i].equals("-threads"))
+                perThread = true;
+            else if(args[i].equals("-every") && i + 1 < args.length)
+                every = (long)(1000 * Double.parseDouble(args[++i]));
+            else if(args[i].equals("-timeline") && i + 1 < args.length)
+                timelineFile = args[++i];
+            else
+                log = new File(args[i]);
+        }
+
+        LogAnalyzer analyzer = new LogAnalyzer();
+        if(timelineFile != null)
+        {
+            analyzer.timeline = new PrintWriter(new FileWriter(timelineFile));
+            analyzer.timeline.println("tick,thread,state");
+        }
+
+        RandomAccessFile file = new RandomAccessFile(log, "r");
+        try
+        {
+            FileChannel channel = file.getChannel();
+            analyzer.read(channel);
+            long reported = System.currentTimeMillis();
+            while(follow && !analyzer.ended)
+            {
+                Thread.sleep(200);
+                if(channel.size() < analyzer.offset)
+                {
+                    System.err.println(log + " was truncated, which a new run does; stopping");
+                    break;
+                }
+                if(analyzer.read(channel) && System.currentTimeMillis() - reported >= every)
+                {
+                    System.out.println(analyzer.report(log.getName(), false));
+                    reported = System.currentTimeMillis();
+                }
+            }
+        }
+        finally
+        {
+            file.close();
+            if(analyzer.timeline != null)
+                analyzer.timeline.close();
+        }
+        System.out.println(analyzer.report(log.getName(), perThread));
+    }
+}
@@ -0,0 +1,201 @@
+/* OSP2 Threads - O(1) priority arrays
+ *
+ * Priority scheduling in the style of the O(1) scheduler: one FIFO per
+ * priority level and a 64-bit map of the levels that are not empty, so
+ * both adding a thread and finding the next one take constant time,
+ * however many threads are ready. The level is the priority do_create
+ * copies from the task, clamped to 0..63; higher runs first.
+ *
+ * There are two such arrays. Threads wait in the active one; a thread
+ * that has used up a quantum of CPU since it was last rescheduled goes
+ * into the expired one instead. When the active array drains the two
+ * swap, so every level gets a turn once per round however busy the
+ * levels above it are. A thread that blocks before its quantum is up
+ * keeps the rest of it and goes back into the active array.
+ *
+ * Rather than flag each expired thread, which would make the swap
+ * visit all of them, a thread records the round it may run in next;
+ * the swap only starts a new round.
+ */
+
+package osp.Threads;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+   Active and expired arrays of per-priority FIFOs with a level bitmap.
+
+   @OSPProject Threads
+*/
+class PriorityArrayQueue extends ReadyQueue
+{
+    static final int LEVELS = 64;
+
+    /** One FIFO per level and the map of non-empty levels. */
+    private static class PriorityArray
+    {
+        ThreadCB[] head = new ThreadCB[LEVELS];
+        ThreadCB[] tail = new ThreadCB[LEVELS];
+        long bitmap;
+        int count;
+
+        void append(ThreadCB thread, int level)
+        {
+            thread.sched.runPrev = tail[level];
+            thread.sched.runNext = null;
+            if(tail[level] == null)
+                head[level] = thread;
+            else
+                tail[level].sched.runNext = thread;
+            tail[level] = thread;
+            bitmap |= 1L << level;
+            count++;
+        }
+
+        void unlink(ThreadCB thread, int level)
+        {
+            SchedEntity s = thread.sched;
+            if(s.runPrev == null)
+                head[level] = s.runNext;
+            else
+                s.runPrev.sched.runNext = s.runNext;
+            if(s.runNext == null)
+                tail[level] = s.runPrev;
+            else
+                s.runNext.sched.runPrev = s.runPrev;
+            s.runNext = s.runPrev = null;
+            if(head[level] == null)
+                bitmap &= ~(1L << level);
+            count--;
+        }
+
+        /** The highest non-empty level; the array is not empty. */
+        int top()
+        {
+            return LEVELS - 1 - Long.numberOfLeadingZeros(bitmap);
+        }
+
+        void collect(List<ThreadCB> out)
+        {
+            for(int level = LEVELS - 1; level >= 0; level--)
+            {
+                for(ThreadCB t = head[level]; t != null; t = t.sched.runNext)
+                    out.add(t);
+            }
+        }
+    }
+
+    private PriorityArray active = new PriorityArray();
+    private PriorityArray expired = new PriorityArray();
+    private long round;                 // threads with a later round belong in expired
+    private int quantum;
+
+    PriorityArrayQueue()
+    {
+        quantum = SchedulerParams.getInt("Scheduler.Quantum", 50);
+    }
+
+    private static int levelOf(ThreadCB thread)
+    {
+        return Math.max(0, Math.min(LEVELS - 1, thread.getPriority()));
+    }
+
+    private PriorityArray arrayOf(ThreadCB thread)
+    {
+        return thread.sched.round > round ? expired : active;
+    }
+
+    void add(ThreadCB thread)
+    {
+        int level = levelOf(thread);
+        SchedTable.level[thread.sched.slot] = level;
+        thread.sched.queued = true;
+        arrayOf(thread).append(thread, level);
+    }
+
+    void remove(ThreadCB thread)
+    {
+        if(!thread.sched.queued)
+            return;
+        arrayOf(thread).unlink(thread, SchedTable.level[thread.sched.slot]);
+        thread.sched.queued = false;
+    }
+
+    boolean contains(ThreadCB thread)
+    {
+        return thread.sched.queued;
+    }
+
+    boolean isEmpty()
+    {
+        return active.count + expired.count == 0;
+    }
+
+    int size()
+    {
+        return active.count + expired.count;
+    }
+
+    /** Head of the highest active level, swapping the arrays first if the active one is empty. */
+    ThreadCB removeNext(ThreadCB preempted)
+    {
+        if(active.count == 0)
+        {
+            PriorityArray drained = active;
+            active = expired;
+            expired = drained;
+            round++;
+        }
+
+        ThreadCB thread = active.head[active.top()];
+        active.unlink(thread, SchedTable.level[thread.sched.slot]);
+        thread.sched.queued = false;
+        return thread;
+    }
+
+    /** A thread that has had a full quantum waits for the next round. */
+    void charge(ThreadCB thread, long ticks)
+    {
+        int slot = thread.sched.slot;
+        SchedTable.sliceUsed[slot] += ticks;
+        if(SchedTable.sliceUsed[slot] >= quantum)
+        {
+            SchedTable.sliceUsed[slot] = 0;
+            thread.sched.round = round + 1;
+        }
+    }
+
+    /**
+       The running thread gives way at the end of its quantum, or to a
+       higher level that became ready in the meantime.
+    */
+    boolean preempts(ThreadCB running)
+    {
+        return running.sched.round > round
+            || (active.count > 0 && active.top() > levelOf(running));
+    }
+
+    /** A woken thread of a higher level preempts, unless it has to wait for the next round. */
+    boolean wakeupPreempts(ThreadCB running, long ran, ThreadCB woken, long granularity)
+    {
+        return woken.sched.round <= round && SchedTable.level[woken.sched.slot] > levelOf(running);
+    }
+
+    /** Active levels from the top, then expired, each level in FIFO order. */
+    void collect(List<ThreadCB> out)
+    {
+        active.collect(out);
+        expired.collect(out);
+    }
+
+    void save(SchedulerCheckpoint cp) throws IOException
+    {
+        cp.out.writeLong(round);
+    }
+
+    void load(SchedulerCheckpoint cp) throws IOException
+    {
+        round = cp.in.readLong();
+    }
+}
@@ -0,0 +1,179 @@
+/* OSP2 Threads - ready queue
+ *
+ * ThreadCB decides when a thread becomes ready, runs or leaves the CPU;
+ * the ready queue decides which ready thread goes next. Each scheduling
+ * policy is one subclass, chosen by the Policy key of [Scheduler].
+ */
+
+package osp.Threads;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+   The set of ready threads, ordered by a scheduling policy.
+
+   @OSPProject Threads
+*/
+abstract class ReadyQueue
+{
+    /**
+       Builds the ready queue configured in params.osp: the best-effort
+       policy named by Policy, per task if TaskGroups is on, behind the
+       EDF class if RealTime is on.
+    */
+    static ReadyQueue configured()
+    {
+        String policy = SchedulerParams.getString("Scheduler.Policy", "RR");
+        ReadyQueue queue = SchedulerParams.getFlag("Scheduler.TaskGroups", false)
+            ? new GroupQueue(policy) : forPolicy(policy);
+        if(SchedulerParams.getFlag("Scheduler.RealTime", false))
+            queue = new EdfQueue(queue);
+        return queue;
+    }
+
+    /**
+       Builds the best-effort ready queue for a policy name.
+       Unknown names fall back to round robin.
+    */
+    static ReadyQueue forPolicy(String policy)
+    {
+        if(policy.equalsIgnoreCase("Stride"))
+            return new StrideQueue(false);
+        if(policy.equalsIgnoreCase("Lottery"))
+            return new StrideQueue(true);
+        if(policy.equalsIgnoreCase("Priority"))
+            return new PriorityArrayQueue();
+        return new RoundRobinQueue();
+    }
+
+    /** Adds a thread that just became ready. */
+    abstract void add(ThreadCB thread);
+
+    /** Takes a thread off the queue without running it. */
+    abstract void remove(ThreadCB thread);
+
+    abstract boolean contains(ThreadCB thread);
+
+    abstract boolean isEmpty();
+
+    abstract int size();
+
+    /**
+       Removes and returns the thread to run next. The queue is not
+       empty when this is called.
+
+       @param preempted the thread that was just taken off the CPU
+       and put back on the queue, or null
+    */
+    abstract ThreadCB removeNext(ThreadCB preempted);
+
+    /**
+       Takes a given thread off the queue to run next, as when the
+       aging bound or a port handoff overrides the policy's choice.
+       Whatever removeNext() records about the thread it dispatches,
+       such as the last task run or the pass reached, is recorded for
+       this one too.
+    */
+    void removeForced(ThreadCB thread)
+    {
+        remove(thread);
+    }
+
+    /**
+       Tells the policy that a thread just left the CPU after running
+       for the given number of ticks. Policies that do not account for
+       CPU usage ignore this.
+    */
+    void charge(ThreadCB thread, long ticks)
+    {
+    }
+
+    /**
+       Tickless mode: whether a ready thread should take the CPU from
+       the running thread, whose quantum is up and has been charged.
+       Only called with threads ready. Under round robin any ready
+       thread is owed a turn.
+    */
+    boolean preempts(ThreadCB running)
+    {
+        return true;
+    }
+
+    /**
+       WakeupPreemption: whether a thread that just became ready should
+       take the CPU from the running thread, which has had ran ticks
+       since it was dispatched and has not been charged for them yet.
+       Only a strictly better claim counts, by more than granularity
+       ticks' worth where the policy measures claims in time. Under
+       round robin a woken thread queues behind the others, so never.
+    */
+    boolean wakeupPreempts(ThreadCB running, long ran, ThreadCB woken, long granularity)
+    {
+        return false;
+    }
+
+    /**
+       Ticks until a thread the policy holds back, ready but only to
+       run when nothing else is, becomes eligible in full; 0 if there
+       is none. Only EDF holds threads back, until their job's release
+       time.
+    */
+    long heldFor(long now)
+    {
+        return 0;
+    }
+
+    /**
+       Ticks the running thread may have before the policy needs a
+       look at it again, whatever the quantum; 0 for no such limit.
+    */
+    long budgetLeft(ThreadCB running)
+    {
+        return 0;
+    }
+
+    /** Tells the policy that a thread left the CPU to wait on an event. */
+    void blocked(ThreadCB thread)
+    {
+    }
+
+    /** Tells the policy that a thread was killed. */
+    void killed(ThreadCB thread)
+    {
+    }
+
+    /** Appends the policy's own lines to the statistics summary. */
+    void report(StringBuffer buf)
+    {
+    }
+
+    /**
+       Appends the ready threads to out, in the order restore() has to
+       see them again to rebuild the queue as it is.
+    */
+    abstract void collect(List<ThreadCB> out);
+
+    /**
+       Writes the policy's own state for a checkpoint, whatever is not
+       kept in the threads' SchedEntity.
+    */
+    void save(SchedulerCheckpoint cp) throws IOException
+    {
+    }
+
+    /** Reads back what save() wrote, into a new, empty queue. */
+    void load(SchedulerCheckpoint cp) throws IOException
+    {
+    }
+
+    /**
+       Puts a ready thread back from a checkpoint. Unlike add(), this
+       must keep the scheduler state the thread was saved with, so
+       policies whose add() changes it override this.
+    */
+    void restore(ThreadCB thread)
+    {
+        add(thread);
+    }
+}
@@ -0,0 +1,152 @@
+/* OSP2 Threads - round robin ready queue
+ *
+ * The original FIFO ready queue, plus the optional task-affinity
+ * batching controlled by TaskAffinity / AffinityBatchLimit.
+ *
+ * The FIFO is linked through the threads' own runNext/runPrev fields,
+ * as PriorityArrayQueue's levels are, rather than kept in a
+ * GenericList: removing a thread from the middle, which every kill of
+ * a ready thread does, is then O(1) instead of a search of the list.
+ */
+
+package osp.Threads;
+
+import java.io.IOException;
+import java.util.List;
+
+import osp.Tasks.*;
+
+/**
+   FIFO ready queue for round robin scheduling.
+
+   @OSPProject Threads
+*/
+class RoundRobinQueue extends ReadyQueue
+{
+    private ThreadCB head;
+    private ThreadCB tail;
+    private int length;
+    private TaskCB lastTask;            // task of the thread dispatched last
+    private int affinityRun;            // consecutive picks that skipped the queue head
+    private boolean taskAffinity;
+    private int affinityBatchLimit;
+
+    RoundRobinQueue()
+    {
+        taskAffinity = SchedulerParams.getFlag("Scheduler.TaskAffinity", false);
+        affinityBatchLimit = SchedulerParams.getInt("Scheduler.AffinityBatchLimit", 4);
+    }
+
+    void add(ThreadCB thread)
+    {
+        SchedEntity s = thread.sched;
+        s.runPrev = tail;
+        s.runNext = null;
+        s.queued = true;
+        if(tail == null)
+            head = thread;
+        else
+            tail.sched.runNext = thread;
+        tail = thread;
+        length++;
+    }
+
+    void remove(ThreadCB thread)
+    {
+        SchedEntity s = thread.sched;
+        if(!s.queued)
+            return;
+        if(s.runPrev == null)
+            head = s.runNext;
+        else
+            s.runPrev.sched.runNext = s.runNext;
+        if(s.runNext == null)
+            tail = s.runPrev;
+        else
+            s.runNext.sched.runPrev = s.runPrev;
+        s.runNext = s.runPrev = null;
+        s.queued = false;
+        length--;
+    }
+
+    boolean contains(ThreadCB thread)
+    {
+        return thread.sched.queued;
+    }
+
+    /** A forced pick ends any run of same-task picks. */
+    void removeForced(ThreadCB thread)
+    {
+        remove(thread);
+        lastTask = thread.getTask();
+        affinityRun = 0;
+    }
+
+    boolean isEmpty()
+    {
+        return length == 0;
+    }
+
+    int size()
+    {
+        return length;
+    }
+
+    void collect(List<ThreadCB> out)
+    {
+        for(ThreadCB t = head; t != null; t = t.sched.runNext)
+            out.add(t);
+    }
+
+    void save(SchedulerCheckpoint cp) throws IOException
+    {
+        cp.writeRef(lastTask);
+        cp.out.writeInt(affinityRun);
+    }
+
+    void load(SchedulerCheckpoint cp) throws IOException
+    {
+        lastTask = cp.readTask();
+        affinityRun = cp.in.readInt();
+    }
+
+    /**
+       Normally the head of the queue. With TaskAffinity on, a ready
+       thread of the task whose page table is already loaded is taken
+       instead, so that threads of one task run back to back and the
+       PTBR does not flip between address spaces. At most
+       AffinityBatchLimit such picks are made in a row before the head
+       gets its turn, which keeps other tasks from starving. The thread
+       that was just preempted is never picked this way, otherwise it
+       would simply keep the CPU.
+    */
+    ThreadCB removeNext(ThreadCB preempted)
+    {
+        ThreadCB thread = pick(preempted);
+        lastTask = thread.getTask();
+        return thread;
+    }
+
+    private ThreadCB pick(ThreadCB preempted)
+    {
+        if(taskAffinity && lastTask != null && head.getTask() != lastTask
+           && affinityRun < affinityBatchLimit)
+        {
+            for(ThreadCB t = head; t != null && t != preempted; t = t.sched.runNext)
+            {
+                if(t.getTask() == lastTask)
+                {
+                    remove(t);
+                    affinityRun++;
+                    SchedulerStats.switchesSaved++;
+                    return t;
+                }
+            }
+        }
+
+        affinityRun = 0;
+        ThreadCB first = head;
+        remove(first);
+        return first;
+    }
+}
@@ -0,0 +1,255 @@
+/* OSP2 Threads - per-thread scheduler state
+ *
+ * Everything the scheduler keeps about a thread lives here rather than
+ * in ThreadCB, so that it can be recycled. ThreadCB objects themselves
+ * cannot be: OSP numbers each one in the IflThreadCB constructor and
+ * keeps killed threads in its own tables and event queues. What can be
+ * reused is the scheduler side, and that is the part that grows with
+ * every policy added.
+ *
+ * With RecycleEntities on, do_kill resets the entity of a dead thread
+ * and keeps it in a bounded pool (EntityPoolSize) for the next
+ * do_create. By then the thread has been taken off the ready queue,
+ * the aging wheel and the wait index, and thread.sched is cleared, so
+ * a stale ThreadCB reference still sitting in an event queue can never
+ * reach the entity's next owner.
+ */
+
+package osp.Threads;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import osp.IFLModules.*;
+
+/**
+   Scheduler bookkeeping for one thread.
+
+   @OSPProject Threads
+*/
+class SchedEntity
+{
+    private static SchedEntity[] pool;
+    private static int pooled;
+    private static boolean recycle;
+
+    ThreadCB owner;
+    int generation;                     // bumped every time the entity is reused
+    int slot = -1;                      // the thread's row in SchedTable
+
+    // The figures every dispatch reads or writes (ready and running
+    // since, stride pass, priority level and slice used) are not here
+    // but in SchedTable's columns, under slot
+
+    long burstStart;                    // tick it became ready after creation or a wait, -1 once it blocks
+
+    // Stride / lottery scheduling, see StrideQueue
+    int tickets;
+    long stride;
+    long seq;
+    int heapIndex;
+
+    // Two-level scheduling, see GroupQueue; looked up again from the task if null
+    GroupQueue.TaskGroup group;
+
+    // Run list links, see RoundRobinQueue and PriorityArrayQueue
+    ThreadCB runNext;
+    ThreadCB runPrev;
+    boolean queued;
+
+    // O(1) priority arrays, see PriorityArrayQueue
+    long round;                         // round it may run in next
+
+    // Earliest-deadline-first real-time class, see EdfQueue
+    boolean classified;
+    long budget;
+    long relativeDeadline;
+    long period;
+    long deadline;
+    long nextRelease;
+    boolean jobActive;
+    long jobUsed;                       // CPU the current job has had
+    boolean overrun;                    // the job used up its budget, now best-effort
+
+    // Port handoff, see ThreadCB.do_resume()
+    long portWoken;                     // tick a port woke the thread, -1 once it has run
+    ThreadCB donor;                     // the thread whose port operation woke it
+
+    // Deadlock detection, see WaitForGraph
+    ThreadCB[] waitsFor = new ThreadCB[4];
+    int waitsForCount;
+    int waitsMark;                      // stamp of the last search that visited the thread
+
+    // Bounded starvation, see AgingWheel
+    long agingDue;
+    int agingSlot;
+    ThreadCB agingNext;
+    ThreadCB agingPrev;
+
+    // Events the thread waits on, innermost last, see WaitIndex
+    Event[] waitStack = new Event[4];
+    int[] waitSlot = new int[4];        // its position in that event's waiter list
+    int waitDepth;
+
+    private SchedEntity()
+    {
+        reset();
+    }
+
+    /** Sets up the pool. Called from ThreadCB.init(). */
+    static void init()
+    {
+        recycle = SchedulerParams.getFlag("Scheduler.RecycleEntities", true);
+        pool = new SchedEntity[Math.max(0, SchedulerParams.getInt("Scheduler.EntityPoolSize", 64))];
+        pooled = 0;
+    }
+
+    /**
+       Gives a new thread its scheduler state, reusing a pooled one if
+       possible. Called from the ThreadCB constructor, which OSP also
+       uses directly for its daemon threads.
+    */
+    static void attach(ThreadCB thread)
+    {
+        SchedEntity entity;
+        if(pooled > 0)
+        {
+            entity = pool[--pooled];
+            pool[pooled] = null;
+            SchedulerStats.entitiesReused++;
+        }
+        else
+        {
+            entity = new SchedEntity();
+            SchedulerStats.entitiesAllocated++;
+        }
+        entity.owner = thread;
+        entity.slot = SchedTable.alloc();
+        thread.sched = entity;
+    }
+
+    /**
+       Takes the scheduler state away from a dead thread. The thread
+       must already be off every scheduler structure.
+    */
+    static void detach(ThreadCB thread)
+    {
+        SchedEntity entity = thread.sched;
+        if(entity == null)
+            return;
+
+        thread.sched = null;
+        SchedTable.release(entity.slot);
+        entity.slot = -1;
+        if(!recycle || pool == null || pooled == pool.length)
+            return;
+
+        entity.reset();
+        entity.generation++;
+        pool[pooled++] = entity;
+    }
+
+    /** Number of entities waiting in the pool, for a checkpoint. */
+    static int pooled()
+    {
+        return pooled;
+    }
+
+    /** Room left in the pool, 0 if entities are not recycled. */
+    static int poolSpace()
+    {
+        return recycle && pool != null ? pool.length - pooled : 0;
+    }
+
+    /**
+       Fills the pool up to count entities: on restoring a checkpoint,
+       so reuse carries on as it would have, and in idle time.
+    */
+    static void refill(int count)
+    {
+        while(pool != null && pooled < Math.min(count, pool.length))
+            pool[pooled++] = new SchedEntity();
+    }
+
+    /**
+       Writes the policy data for a checkpoint. The links into the ready
+       queue, aging wheel and wait index are not saved; restoring puts
+       the thread back into those structures instead.
+    */
+    void save(DataOutputStream out) throws IOException
+    {
+        out.writeLong(burstStart);
+        out.writeInt(tickets);
+        out.writeLong(stride);
+        out.writeLong(seq);
+        out.writeLong(round);
+        out.writeBoolean(classified);
+        out.writeLong(budget);
+        out.writeLong(relativeDeadline);
+        out.writeLong(period);
+        out.writeLong(deadline);
+        out.writeLong(nextRelease);
+        out.writeBoolean(jobActive);
+        out.writeLong(jobUsed);
+        out.writeBoolean(overrun);
+        out.writeLong(portWoken);
+        SchedTable.save(slot, out);
+    }
+
+    void load(DataInputStream in) throws IOException
+    {
+        burstStart = in.readLong();
+        tickets = in.readInt();
+        stride = in.readLong();
+        seq = in.readLong();
+        round = in.readLong();
+        classified = in.readBoolean();
+        budget = in.readLong();
+        relativeDeadline = in.readLong();
+        period = in.readLong();
+        deadline = in.readLong();
+        nextRelease = in.readLong();
+        jobActive = in.readBoolean();
+        jobUsed = in.readLong();
+        overrun = in.readBoolean();
+        portWoken = in.readLong();
+        SchedTable.load(slot, in);
+    }
+
+    private void reset()
+    {
+        owner = null;
+        burstStart = -1;
+        tickets = 0;
+        stride = 0;
+        seq = 0;
+        heapIndex = -1;
+        group = null;
+        runNext = null;
+        runPrev = null;
+        queued = false;
+        round = 0;
+        classified = false;
+        budget = 0;
+        relativeDeadline = 0;
+        period = 0;
+        deadline = 0;
+        nextRelease = 0;
+        jobActive = false;
+        jobUsed = 0;
+        overrun = false;
+        portWoken = -1;
+        donor = null;
+        agingDue = 0;
+        agingSlot = -1;
+        agingNext = null;
+        agingPrev = null;
+        for(int i = 0; i < waitsForCount; i++)
+            waitsFor[i] = null;
+        waitsForCount = 0;
+        for(int i = 0; i < waitDepth; i++)
+            waitStack[i] = null;
+        waitDepth = 0;
+    }
+}
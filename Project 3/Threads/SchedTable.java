@@ -0,0 +1,206 @@
+/* OSP2 Threads - per-thread figures in primitive columns
+ *
+ * Each live thread holds a slot in a set of parallel arrays: what it
+ * is doing and since when, how much CPU it has had and how often it
+ * has been dispatched, and the scalars the policies read on every
+ * dispatch - when it last became ready and last ran, its stride pass,
+ * its priority level and the slice it has used. Slots are dense: do_kill gives a thread's slot
+ * back and SchedEntity.attach hands out a freed one before a new one,
+ * so the columns only grow to the most threads ever alive at once,
+ * not the number ever created.
+ *
+ * Keeping these figures in int[] and long[] columns rather than in
+ * the entities means a pass over every thread, such as the census in
+ * the statistics report, reads a few contiguous arrays instead of
+ * following a reference per thread, and allocates nothing however
+ * many thousands of threads there are. The columns are the only copy:
+ * the entity keeps just the slot number, and the policies index the
+ * public columns with it directly (StrideQueue's heap compares
+ * pass[a.sched.slot] and so on). A column may be replaced by a bigger
+ * one when a slot is handed out, so it is never cached in a field.
+ */
+
+package osp.Threads;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+   Struct-of-arrays table of per-thread scheduler figures.
+
+   @OSPProject Threads
+*/
+class SchedTable
+{
+    static final int FREE = 0;
+    static final int NEW = 1;           // created, never made ready
+    static final int READY = 2;
+    static final int RUNNING = 3;
+    static final int WAITING = 4;
+    static final int HELD = 5;          // deferred by admission control
+
+    private static int[] state = new int[64];
+    private static long[] since = new long[64];     // tick the thread entered its state
+    private static long[] cpu = new long[64];       // ticks of CPU charged to it
+    private static int[] dispatches = new int[64];
+
+    static long[] readySince = new long[64];        // tick it last joined the ready queue
+    static long[] runningSince = new long[64];      // tick it was last dispatched, or its quantum renewed
+    static long[] pass = new long[64];              // stride pass, see StrideQueue
+    static long[] sliceUsed = new long[64];         // CPU since it last went to the expired array
+    static int[] level = new int[64];               // priority array level, see PriorityArrayQueue
+
+    private static int[] free = new int[64];        // released slots, reused last in first out
+    private static int freeCount;
+    private static int used;                        // slots ever handed out; the rest are free too
+    private static int live;
+
+    /** Counts by state, filled in by census(). */
+    static int[] states = new int[HELD + 1];
+    static long oldestReady;            // longest a thread now ready has waited
+    static long oldestWaiting;          // longest a thread now waiting has waited
+    static long cpuTotal;               // CPU charged to the threads now alive
+    static long cpuMax;                 // most CPU any one of them has had
+    static int dispatchMax;             // most dispatches any one of them has had
+
+    /** Gives a new thread a slot. */
+    static int alloc()
+    {
+        int slot;
+        if(freeCount > 0)
+            slot = free[--freeCount];
+        else
+        {
+            slot = used++;
+            if(slot == state.length)
+            {
+                int n = 2 * slot;
+                state = Arrays.copyOf(state, n);
+                since = Arrays.copyOf(since, n);
+                cpu = Arrays.copyOf(cpu, n);
+                dispatches = Arrays.copyOf(dispatches, n);
+                readySince = Arrays.copyOf(readySince, n);
+                runningSince = Arrays.copyOf(runningSince, n);
+                pass = Arrays.copyOf(pass, n);
+                sliceUsed = Arrays.copyOf(sliceUsed, n);
+                level = Arrays.copyOf(level, n);
+                free = Arrays.copyOf(free, n);
+            }
+        }
+        state[slot] = NEW;
+        since[slot] = 0;
+        cpu[slot] = 0;
+        dispatches[slot] = 0;
+        readySince[slot] = 0;
+        runningSince[slot] = 0;
+        pass[slot] = 0;
+        sliceUsed[slot] = 0;
+        level[slot] = 0;
+        live++;
+        return slot;
+    }
+
+    /** Frees a dead thread's slot for the next thread. */
+    static void release(int slot)
+    {
+        state[slot] = FREE;
+        free[freeCount++] = slot;
+        live--;
+    }
+
+    /** The thread entered the given state at tick now. */
+    static void enter(int slot, int newState, long now)
+    {
+        state[slot] = newState;
+        since[slot] = now;
+    }
+
+    static int state(int slot)
+    {
+        return state[slot];
+    }
+
+    /** The thread joined the ready queue. */
+    static void ready(int slot, long now)
+    {
+        enter(slot, READY, now);
+        readySince[slot] = now;
+    }
+
+    /** The thread was put on the CPU. */
+    static void dispatched(int slot, long now)
+    {
+        enter(slot, RUNNING, now);
+        runningSince[slot] = now;
+        dispatches[slot]++;
+    }
+
+    /** The thread used ticks of CPU. */
+    static void ran(int slot, long ticks)
+    {
+        cpu[slot] += ticks;
+    }
+
+    static int live()
+    {
+        return live;
+    }
+
+    /** One pass over every slot, refreshing the counts and figures above. */
+    static void census(long now)
+    {
+        Arrays.fill(states, 0);
+        long readyFrom = now, waitingFrom = now;
+        long total = 0, max = 0;
+        int most = 0;
+        for(int slot = 0; slot < used; slot++)
+        {
+            int s = state[slot];
+            states[s]++;
+            if(s == READY && readySince[slot] < readyFrom)
+                readyFrom = readySince[slot];
+            else if(s == WAITING && since[slot] < waitingFrom)
+                waitingFrom = since[slot];
+            if(s != FREE)
+            {
+                total += cpu[slot];
+                if(cpu[slot] > max)
+                    max = cpu[slot];
+                if(dispatches[slot] > most)
+                    most = dispatches[slot];
+            }
+        }
+        oldestReady = now - readyFrom;
+        oldestWaiting = now - waitingFrom;
+        cpuTotal = total;
+        cpuMax = max;
+        dispatchMax = most;
+    }
+
+    /** Writes one thread's row, for a checkpoint. */
+    static void save(int slot, DataOutputStream out) throws IOException
+    {
+        out.writeByte(state[slot]);
+        out.writeLong(since[slot]);
+        out.writeLong(cpu[slot]);
+        out.writeInt(dispatches[slot]);
+        out.writeLong(readySince[slot]);
+        out.writeLong(runningSince[slot]);
+        out.writeLong(pass[slot]);
+        out.writeLong(sliceUsed[slot]);
+    }
+
+    static void load(int slot, DataInputStream in) throws IOException
+    {
+        state[slot] = in.readByte();
+        since[slot] = in.readLong();
+        cpu[slot] = in.readLong();
+        dispatches[slot] = in.readInt();
+        readySince[slot] = in.readLong();
+        runningSince[slot] = in.readLong();
+        pass[slot] = in.readLong();
+        sliceUsed[slot] = in.readLong();
+    }
+}
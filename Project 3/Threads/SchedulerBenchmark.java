@@ -0,0 +1,235 @@
+/* OSP2 Threads - scheduler scaling benchmark
+ *
+ * Runs OSP once for every (profile, policy, thread count) combination,
+ * each in its own directory with a generated params.osp, and collects
+ * the scheduler statistics ThreadCB prints at exit. The results go to
+ * <out>/bench.csv, with a gnuplot script <out>/bench.gp that plots mean
+ * dispatch cost and throughput against thread count per policy.
+ *
+ * With -backend kernel the runs use the standalone kernel under Sim/
+ * (make simbench) instead of OSP, driven by the profile's burst model.
+ * OSP caps the number of live threads well below the larger counts;
+ * the kernel does not.
+ *
+ *     make bench OPTS="-profiles cpu,io -policies RR,Stride,Lottery,Priority \
+ *                      -threads 100,1000,10000,30000 -length 20000"
+ */
+
+package osp.Threads;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+   Measures dispatch cost and throughput as the thread count grows.
+
+   @OSPProject Threads
+*/
+public class SchedulerBenchmark
+{
+    static final String[] COLUMNS = {
+        "mean dispatch ns", "dispatches", "threads killed",
+        "max ready queue length", "mean ready wait", "max ready wait"
+    };
+
+    /**
+       Runs one simulation in dir with the given settings applied on
+       top of the base parameter file, and returns the scheduler
+       statistics it printed ("name" to value).
+    */
+    static Map<String,String> run(File dir, File base, Map<String,String> settings, boolean kernel)
+        throws IOException, InterruptedException
+    {
+        File misc = new File(dir, "Misc");
+        misc.mkdirs();
+        WorkloadGenerator.write(base, settings, new File(misc, "params.osp"));
+        copy(new File(base.getParentFile(), "wgui.rdl"), new File(misc, "wgui.rdl"));
+
+        ProcessBuilder pb = kernel
+            ? new ProcessBuilder("java", "-classpath", absoluteClassPath(), "osp.EventEngine.Simulation")
+            : new ProcessBuilder("java", "-classpath", absoluteClassPath(), "osp.OSP", "-noGUI");
+        pb.directory(dir);
+        pb.redirectErrorStream(true);
+        Process p = pb.start();
+
+        Map<String,String> stats = new HashMap<String,String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
+        boolean inStats = false;
+        String line;
+        while((line = in.readLine()) != null)
+        {
+            if(line.startsWith("Scheduler statistics"))
+                inStats = true;
+            else if(inStats && line.startsWith("  ") && line.indexOf(':') > 0)
+            {
+                int c = line.indexOf(':');
+                stats.put(line.substring(0, c).trim(), line.substring(c+1).trim());
+            }
+        }
+        p.waitFor();
+        return stats;
+    }
+
+    /** The benchmark's own class path, made absolute for the child JVMs. */
+    private static String absoluteClassPath()
+    {
+        StringBuffer buf = new StringBuffer();
+        for(String entry : System.getProperty("java.class.path").split(File.pathSeparator))
+        {
+            if(buf.length() > 0)
+                buf.append(File.pathSeparator);
+            buf.append(new File(entry).getAbsolutePath());
+        }
+        return buf.toString();
+    }
+
+    private static void copy(File from, File to) throws IOException
+    {
+        if(!from.exists())
+            return;
+        InputStream in = new FileInputStream(from);
+        OutputStream out = new FileOutputStream(to);
+        try
+        {
+            byte[] buf = new byte[8192];
+            int n;
+            while((n = in.read(buf)) > 0)
+                out.write(buf, 0, n);
+        }
+        finally
+        {
+            in.close();
+            out.close();
+        }
+    }
+
+    private static String[] list(String s)
+    {
+        return s.split(",");
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        String[] profiles = list("cpu,io");
+        String[] policies = list("RR,Stride,Lottery");
+        String[] threads = list("100,300,1000,3000,10000");
+        long length = 20000;
+        File base = new File(SchedulerParams.PARAMS_FILE);
+        File out = new File("bench");
+        boolean kernel = false;
+
+        for(int i = 0; i + 1 < args.length; i += 2)
+        {
+            if(args[i].equals("-profiles"))
+                profiles = list(args[i+1]);
+            else if(args[i].equals("-policies"))
+                policies = list(args[i+1]);
+            else if(args[i].equals("-threads"))
+                threads = list(args[i+1]);
+            else if(args[i].equals("-length"))
+                length = Long.parseLong(args[i+1]);
+            else if(args[i].equals("-base"))
+                base = new File(args[i+1]);
+            else if(args[i].equals("-out"))
+                out = new File(args[i+1]);
+            else if(args[i].equals("-backend"))
+                kernel = args[i+1].equals("kernel");
+        }
+        base = base.getAbsoluteFile();
+        out.mkdirs();
+
+        PrintWriter csv = new PrintWriter(new FileWriter(new File(out, "bench.csv")));
+        csv.println("profile,policy,threads,throughput per 1000 ticks,wall ms,"
+                    + "mean dispatch ns,dispatches,threads killed,"
+                    + "max ready queue length,mean ready wait,max ready wait");
+        System.out.printf("%-7s %-8s %7s %12s %12s %10s %10s%n", "profile", "policy",
+                          "threads", "dispatch ns", "throughput", "max ready", "wall ms");
+
+        List<String> series = new ArrayList<String>();
+        for(String prof : profiles)
+        {
+            WorkloadProfile profile = WorkloadProfile.named(prof);
+            for(String policy : policies)
+            {
+                series.add(profile.shortName + "-" + policy);
+                for(String n : threads)
+                {
+                    Map<String,String> settings = profile.params(Integer.parseInt(n), length);
+                    settings.put("Scheduler.Policy", policy);
+                    settings.put("Kernel.Profile", profile.shortName);
+                    File dir = new File(out, profile.shortName + "-" + policy + "-" + n);
+
+                    long started = System.currentTimeMillis();
+                    Map<String,String> stats = run(dir, base, settings, kernel);
+                    long wall = System.currentTimeMillis() - started;
+
+                    double throughput = 1000.0 * Double.parseDouble(value(stats, "threads killed")) / length;
+                    StringBuffer row = new StringBuffer();
+                    row.append(profile.shortName).append(',').append(policy).append(',').append(n)
+                       .append(',').append((float)throughput).append(',').append(wall);
+                    for(String c : COLUMNS)
+                        row.append(',').append(value(stats, c));
+                    csv.println(row);
+                    csv.flush();
+
+                    System.out.printf("%-7s %-8s %7s %12s %12.3f %10s %10d%n", profile.shortName, policy, n,
+                                      value(stats, "mean dispatch ns"), throughput,
+                                      value(stats, "max ready queue length"), wall);
+                }
+            }
+        }
+        csv.close();
+        writePlot(new File(out, "bench.gp"), series);
+        System.out.println("Results in " + new File(out, "bench.csv") + ", plot with gnuplot "
+                           + new File(out, "bench.gp"));
+    }
+
+    private static String value(Map<String,String> stats, String key)
+    {
+        String v = stats.get(key);
+        return v == null ? "0" : v;
+    }
+
+    /** Gnuplot script: dispatch cost and throughput against thread count. */
+    private static void writePlot(File file, List<String> series) throws IOException
+    {
+        PrintWriter gp = new PrintWriter(new FileWriter(file));
+        gp.println("set datafile separator ','");
+        gp.println("set terminal png size 1200,500");
+        gp.println("set output 'bench.png'");
+        gp.println("set multiplot layout 1,2");
+        gp.println("set logscale x");
+        gp.println("set xlabel 'threads'");
+        String[] plots = { "mean dispatch ns", "throughput per 1000 ticks" };
+        int[] cols = { 6, 4 };
+        for(int k = 0; k < plots.length; k++)
+        {
+            gp.println("set title '" + plots[k] + "'");
+            StringBuffer cmd = new StringBuffer("plot ");
+            for(int i = 0; i < series.size(); i++)
+            {
+                String[] sp = series.get(i).split("-", 2);
+                if(i > 0)
+                    cmd.append(", ");
+                cmd.append("'bench.csv' using (strcol(1) eq '").append(sp[0])
+                   .append("' && strcol(2) eq '").append(sp[1]).append("' ? $3 : 1/0):")
+                   .append(cols[k]).append(" with linespoints title '").append(series.get(i)).append("'");
+            }
+            gp.println(cmd);
+        }
+        gp.println("unset multiplot");
+        gp.close();
+    }
+}
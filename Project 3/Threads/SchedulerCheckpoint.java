@@ -0,0 +1,234 @@
+/* OSP2 Threads - scheduler checkpoints
+ *
+ * Saves everything the scheduler knows at one instant, and puts it back
+ * into a freshly initialised scheduler: per-thread SchedEntity and SchedTable data,
+ * the events each waiting thread is nested on, the ready queue in
+ * order, the aging wheel, the policy's own state, the threads held back
+ * by admission control, the size of the entity pool and the statistics.
+ *
+ * The framework objects themselves (tasks, threads, events) belong to
+ * whoever drives the simulation. The driver rebuilds them first and
+ * passes the same three lists to the constructor on both sides, and
+ * the checkpoint refers to objects by their position in those lists.
+ * OSP.jar offers no way to rebuild its own state, so only the
+ * standalone kernel under Sim/ can restore a checkpoint.
+ *
+ * The ready queue's own state is written as a separate block tagged
+ * with the policy it came from. Restoring under the same policy
+ * reproduces the queue exactly. Under another policy the block is
+ * skipped and the ready threads are added afresh, in the saved order,
+ * so several policies can be tried from one mid-run state.
+ */
+
+package osp.Threads;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import osp.IFLModules.*;
+import osp.Tasks.*;
+import osp.Hardware.*;
+
+/**
+   Writes and restores the scheduler's state.
+
+   @OSPProject Threads
+*/
+public class SchedulerCheckpoint
+{
+    private static final int MAGIC = 0x53434850;       // "SCHP"
+    private static final int VERSION = 15;
+
+    private List<TaskCB> tasks;
+    private List<ThreadCB> threads;
+    private List<Event> events;
+    private IdentityHashMap<Object,Integer> index = new IdentityHashMap<Object,Integer>();
+
+    DataOutputStream out;
+    DataInputStream in;
+
+    /**
+       @param tasks, threads, events the framework objects the scheduler
+       may refer to, listed in the same order when saving and restoring
+    */
+    public SchedulerCheckpoint(List<TaskCB> tasks, List<ThreadCB> threads, List<Event> events)
+    {
+        this.tasks = tasks;
+        this.threads = threads;
+        this.events = events;
+        for(List<?> list : new List<?>[] { tasks, threads, events })
+        {
+            for(int i = 0; i < list.size(); i++)
+                index.put(list.get(i), i);
+        }
+    }
+
+    /** Writes the scheduler's state. Every live thread must be in the thread list. */
+    public void save(DataOutputStream out) throws IOException
+    {
+        this.out = out;
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        writeRef(ThreadCB.lastTask);
+        out.writeInt(SchedEntity.pooled());
+
+        for(ThreadCB thread : threads)
+        {
+            SchedEntity s = thread.sched;
+            s.save(out);
+            out.writeShort(s.waitDepth);
+            for(int i = 0; i < s.waitDepth; i++)
+                writeRef(s.waitStack[i]);
+        }
+
+        List<ThreadCB> ready = new ArrayList<ThreadCB>();
+        ThreadCB.readyQueue.collect(ready);
+        out.writeInt(ready.size());
+        for(ThreadCB thread : ready)
+            writeRef(thread);
+
+        out.writeUTF(policyName());
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        this.out = new DataOutputStream(block);
+        ThreadCB.readyQueue.save(this);
+        this.out = out;
+        out.writeInt(block.size());
+        block.writeTo(out);
+
+        out.writeBoolean(ThreadCB.aging != null);
+        if(ThreadCB.aging != null)
+            ThreadCB.aging.save(this);
+
+        out.writeBoolean(ThreadCB.admission != null);
+        if(ThreadCB.admission != null)
+            ThreadCB.admission.save(this);
+
+        out.writeBoolean(ThreadCB.idleWork != null);
+        if(ThreadCB.idleWork != null)
+            ThreadCB.idleWork.save(this);
+
+        SchedulerStats.save(out);
+        this.out = null;
+    }
+
+    /**
+       Restores a saved state into the scheduler. ThreadCB.init() must
+       have run, and the tasks, threads and events must already be back
+       in the state they were saved in.
+    */
+    public void restore(DataInputStream in) throws IOException
+    {
+        this.in = in;
+        if(in.readInt() != MAGIC || in.readShort() != VERSION)
+            throw new IOException("Not a scheduler checkpoint");
+
+        ThreadCB.lastTask = readTask();
+        SchedEntity.refill(in.readInt());
+
+        for(ThreadCB thread : threads)
+        {
+            thread.sched.load(in);
+            for(int depth = in.readShort(); depth > 0; depth--)
+                ThreadCB.waitIndex.suspended(thread, readEvent());
+        }
+
+        List<ThreadCB> ready = new ArrayList<ThreadCB>();
+        for(int n = in.readInt(); n > 0; n--)
+            ready.add(readThread());
+
+        boolean samePolicy = in.readUTF().equals(policyName());
+        byte[] policy = new byte[in.readInt()];
+        in.readFully(policy);
+        if(samePolicy)
+        {
+            this.in = new DataInputStream(new ByteArrayInputStream(policy));
+            ThreadCB.readyQueue.load(this);
+            this.in = in;
+        }
+        for(ThreadCB thread : ready)
+        {
+            if(samePolicy)
+                ThreadCB.readyQueue.restore(thread);
+            else
+                ThreadCB.readyQueue.add(thread);
+        }
+
+        if(in.readBoolean())
+        {
+            // A wheel that is switched off now is still read, into one that is then dropped
+            AgingWheel saved = ThreadCB.aging != null ? ThreadCB.aging : new AgingWheel(1, 0);
+            saved.load(this);
+            if(ThreadCB.aging == null)
+            {
+                for(ThreadCB thread : ready)
+                    saved.cancel(thread);
+            }
+        }
+        else if(ThreadCB.aging != null)
+        {
+            ThreadCB.aging = new AgingWheel(SchedulerParams.getLong("Scheduler.AgingBound", 0), HClock.get());
+            for(ThreadCB thread : ready)
+                ThreadCB.aging.refile(thread);
+        }
+
+        if(in.readBoolean())
+        {
+            // Threads held back under a policy that is now off go straight to the ready queue
+            AdmissionControl saved = ThreadCB.admission != null ? ThreadCB.admission : new AdmissionControl();
+            saved.load(this);
+            if(ThreadCB.admission == null)
+            {
+                for(ThreadCB held; (held = saved.release(HClock.get())) != null; )
+                    ThreadCB.makeReady(held);
+            }
+        }
+
+        if(in.readBoolean())
+            (ThreadCB.idleWork != null ? ThreadCB.idleWork : new IdleWork()).load(this);
+
+        SchedulerStats.load(in);
+        this.in = null;
+    }
+
+    /** Policy and real-time settings, which decide what the queue block means. */
+    private static String policyName()
+    {
+        return SchedulerParams.getString("Scheduler.Policy", "RR")
+            + (SchedulerParams.getFlag("Scheduler.TaskGroups", false) ? "+Groups" : "")
+            + (SchedulerParams.getFlag("Scheduler.RealTime", false) ? "+EDF" : "");
+    }
+
+    /**
+       Writes a task, thread or event as its position in its list, or
+       -1 for null or an object the driver did not list (a dead task).
+    */
+    void writeRef(Object o) throws IOException
+    {
+        Integer i = o == null ? null : index.get(o);
+        out.writeInt(i == null ? -1 : i);
+    }
+
+    TaskCB readTask() throws IOException
+    {
+        int i = in.readInt();
+        return i < 0 ? null : tasks.get(i);
+    }
+
+    ThreadCB readThread() throws IOException
+    {
+        int i = in.readInt();
+        return i < 0 ? null : threads.get(i);
+    }
+
+    Event readEvent() throws IOException
+    {
+        int i = in.readInt();
+        return i < 0 ? null : events.get(i);
+    }
+}
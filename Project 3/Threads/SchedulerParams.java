@@ -0,0 +1,129 @@
+/* OSP2 Threads - scheduler settings
+ *
+ * OSP only reads the sections of params.osp that it knows about and
+ * skips the rest, so the scheduler keeps its own knobs in a
+ * [Scheduler] section of the same file.
+ */
+
+package osp.Threads;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+   Reads scheduler settings from the simulation parameter file.
+
+   Keys are looked up as "Section.Key", e.g. "Scheduler.TaskAffinity"
+   or "General.SimulationLength", so the scheduler can also see the
+   framework's own settings. Missing keys fall back to the default
+   given by the caller.
+
+   @OSPProject Threads
+*/
+class SchedulerParams
+{
+    /** Parameter file OSP reads, relative to the working directory. */
+    static final String PARAMS_FILE = "Misc/params.osp";
+
+    private static Map<String,String> values;
+
+    /**
+       Reads the parameter file. Called from ThreadCB.init(); a
+       missing file just leaves every setting at its default.
+    */
+    static synchronized void load()
+    {
+        values = read(PARAMS_FILE);
+    }
+
+    /**
+       Reads any parameter file into "Section.Key" entries; a missing
+       or unreadable file gives whatever could be read.
+    */
+    static Map<String,String> read(String file)
+    {
+        Map<String,String> map = new HashMap<String,String>();
+        BufferedReader in = null;
+        try
+        {
+            in = new BufferedReader(new FileReader(file));
+            String section = "";
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                line = line.trim();
+                if(line.length() == 0 || line.startsWith("#"))
+                    continue;
+
+                if(line.startsWith("[") && line.endsWith("]"))
+                {
+                    section = line.substring(1, line.length()-1).trim();
+                    continue;
+                }
+
+                String[] kv = line.split("\\s+", 2);
+                map.put(section + "." + kv[0], kv.length > 1 ? kv[1].trim() : "");
+            }
+        }
+        catch(IOException e){}
+        finally
+        {
+            try { if(in != null) in.close(); } catch(IOException e){}
+        }
+        return map;
+    }
+
+    static synchronized String getString(String key, String def)
+    {
+        if(values == null)
+            load();
+
+        String v = values.get(key);
+        return v == null ? def : v;
+    }
+
+    static int getInt(String key, int def)
+    {
+        try
+        {
+            return Integer.parseInt(getString(key, Integer.toString(def)));
+        }
+        catch(NumberFormatException e)
+        {
+            return def;
+        }
+    }
+
+    static long getLong(String key, long def)
+    {
+        try
+        {
+            return Long.parseLong(getString(key, Long.toString(def)));
+        }
+        catch(NumberFormatException e)
+        {
+            return def;
+        }
+    }
+
+    static double getDouble(String key, double def)
+    {
+        try
+        {
+            return Double.parseDouble(getString(key, Double.toString(def)));
+        }
+        catch(NumberFormatException e)
+        {
+            return def;
+        }
+    }
+
+    /** Flags follow the params.osp convention: 0 is off, anything else on. */
+    static boolean getFlag(String key, boolean def)
+    {
+        return getInt(key, def ? 1 : 0) != 0;
+    }
+}
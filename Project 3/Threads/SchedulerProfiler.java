@@ -0,0 +1,202 @@
+/* OSP2 Threads - wall-time profile of the scheduler's entry points
+ *
+ * With Scheduler.Profile N every call OSP makes into this module -
+ * do_create, do_kill, do_suspend, do_resume, do_dispatch and the timer
+ * interrupt handler - is counted, and one outermost call in N is timed
+ * with System.nanoTime(), together with whatever entry points it calls
+ * in turn (do_resume dispatching, say). Calls that are not sampled cost
+ * a counter and a branch.
+ *
+ * A sampled call is also attributed to the event that led to it: the
+ * outermost frame on the Java stack below OSP's event engine, which is
+ * the IFLModules callback or event OSP activated (CallbackThreadCreate,
+ * CallbackTimerInterrupt, CallbackDiskInterrupt, DispatchThreadEvent
+ * and so on), or the run() of one of the framework's own Java threads
+ * (ReferThread for memory references). Walking the stack is what costs,
+ * some microseconds a time, which is why only sampled calls do it; the
+ * report says how long the walks took in all. The standalone kernel has
+ * no callback objects; there the kernel method handling the event
+ * names it instead.
+ *
+ * Times are inclusive, so the entry point table counts a nested
+ * dispatch twice; the event table only times outermost calls, and its
+ * shares add up to the module's estimated share of the whole run.
+ */
+
+package osp.Threads;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+   Sampled per-entry-point and per-event wall-time profile.
+
+   @OSPProject Threads
+*/
+class SchedulerProfiler
+{
+    static final int CREATE = 0;
+    static final int KILL = 1;
+    static final int SUSPEND = 2;
+    static final int RESUME = 3;
+    static final int DISPATCH = 4;
+    static final int TIMER = 5;
+
+    private static final String[] NAMES = {
+        "do_create", "do_kill", "do_suspend", "do_resume", "do_dispatch", "do_handleInterrupt"
+    };
+
+    private int every;                  // one outermost call in this many is timed
+    private int countdown;
+    private int depth;                  // entry points on the stack right now
+    private boolean sampling;           // the current outermost call is being timed
+    private String event;               // what led to it
+
+    private long[] calls = new long[NAMES.length];
+    private Histogram[] times = new Histogram[NAMES.length];       // nanoseconds, sampled calls
+    private Map<String,Histogram> events = new HashMap<String,Histogram>();
+    private long started = System.nanoTime();
+    private long overhead;              // nanoseconds spent walking the stack
+
+    SchedulerProfiler(int every)
+    {
+        this.every = every;
+        countdown = every;
+        for(int i = 0; i < times.length; i++)
+            times[i] = new Histogram();
+    }
+
+    /** Scheduler.Profile: the sampling interval, or null when it is 0. */
+    static SchedulerProfiler configured()
+    {
+        int every = SchedulerParams.getInt("Scheduler.Profile", 0);
+        return every > 0 ? new SchedulerProfiler(every) : null;
+    }
+
+    /**
+       An entry point was called.
+
+       @return its start time if it is to be timed, else 0
+    */
+    long enter(int point)
+    {
+        if(depth++ > 0)
+            return sampling ? System.nanoTime() : 0;
+        if(--countdown > 0)
+            return 0;
+        return sample(point);
+    }
+
+    /** The entry point entered at start returned. */
+    void exit(int point, long start)
+    {
+        depth--;
+        calls[point]++;
+        if(sampling)
+            record(point, System.nanoTime() - start);
+    }
+
+    // The sampled path is kept out of enter() and exit() so that those
+    // stay small enough for the JIT to inline into every entry point
+
+    private long sample(int point)
+    {
+        countdown = every;
+        sampling = true;
+        long walk = System.nanoTime();
+        event = caller() + "/" + NAMES[point];
+        long now = System.nanoTime();
+        overhead += now - walk;
+        return now;
+    }
+
+    private void record(int point, long ns)
+    {
+        times[point].add(ns);
+        if(depth > 0)
+            return;
+
+        Histogram h = events.get(event);
+        if(h == null)
+        {
+            h = new Histogram();
+            events.put(event, h);
+        }
+        h.add(ns);
+        sampling = false;
+    }
+
+    /**
+       The outermost frame below the event engine: the callback or
+       event OSP activated, or the framework thread that made the call.
+    */
+    private static String caller()
+    {
+        String found = "?";
+        for(StackTraceElement frame : new Throwable().getStackTrace())
+        {
+            String c = frame.getClassName();
+            if(c.startsWith("osp.Threads."))
+                continue;
+            if(c.equals("osp.EventEngine.Simulation"))
+                return "Simulation." + frame.getMethodName();
+            if(c.startsWith("osp.EventEngine.") || c.startsWith("java."))
+                break;
+            found = c.substring(c.lastIndexOf('.') + 1);
+        }
+        return found;
+    }
+
+    private long estimate(Histogram h)
+    {
+        return (long)(h.mean() * h.count()) * every;
+    }
+
+    /** The report block for the statistics summary. */
+    void report(StringBuffer buf)
+    {
+        long wall = System.nanoTime() - started;
+        long total = 0;
+        List<Map.Entry<String,Histogram>> byTime = new ArrayList<Map.Entry<String,Histogram>>(events.entrySet());
+        for(Map.Entry<String,Histogram> e : byTime)
+            total += estimate(e.getValue());
+
+        buf.append("\n  profile: 1 in ").append(every).append(" calls timed; about ")
+           .append(total / 1000000).append(" of ").append(wall / 1000000)
+           .append(" ms of wall time spent in the scheduler (")
+           .append(percent(total, wall)).append("), ")
+           .append(overhead / 1000000).append(" ms on the profiler's stack walks");
+        buf.append(String.format("%n    %-20s %10s %9s %9s %9s %9s", "entry point", "calls", "mean us", "p99 us", "max us", "est ms"));
+        for(int i = 0; i < NAMES.length; i++)
+        {
+            Histogram h = times[i];
+            buf.append(String.format("%n    %-20s %10d %9.1f %9.1f %9.1f %9d", NAMES[i], calls[i],
+                                     h.mean() / 1000, h.percentile(0.99) / 1000.0, h.max() / 1000.0,
+                                     (long)(h.mean() * calls[i]) / 1000000));
+        }
+
+        Collections.sort(byTime, new Comparator<Map.Entry<String,Histogram>>() {
+            public int compare(Map.Entry<String,Histogram> a, Map.Entry<String,Histogram> b)
+            {
+                return Long.compare(estimate(b.getValue()), estimate(a.getValue()));
+            }
+        });
+        buf.append(String.format("%n    %-44s %10s %9s %9s %9s %6s", "calling event/entry point", "est calls", "mean us", "p99 us", "est ms", "share"));
+        for(Map.Entry<String,Histogram> e : byTime)
+        {
+            Histogram h = e.getValue();
+            buf.append(String.format("%n    %-44s %10d %9.1f %9.1f %9d %6s", e.getKey(), h.count() * every,
+                                     h.mean() / 1000, h.percentile(0.99) / 1000.0,
+                                     estimate(h) / 1000000, percent(estimate(h), total)));
+        }
+    }
+
+    private static String percent(long part, long whole)
+    {
+        return whole == 0 ? "0%" : String.format("%.1f%%", 100.0 * part / whole);
+    }
+}
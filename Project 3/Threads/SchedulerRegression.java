@@ -0,0 +1,224 @@
+/* OSP2 Threads - scheduling performance regression gate
+ *
+ * Runs a fixed set of seeded workloads through the standalone kernel
+ * (every profile under every policy, lightly and heavily loaded) and
+ * compares what ThreadCB measured with the figures checked in as
+ * Misc/baselines.csv: throughput, mean and p99 ready wait, mean and p99
+ * turnaround, context switches and idle ratio. A metric that got worse by more
+ * than the tolerance (10% by default) fails the gate, and the exit
+ * status is 1. The kernel is deterministic for a given seed, so any
+ * difference comes from the scheduler itself.
+ *
+ * The settings the workloads do not override come from
+ * Misc/regress.osp, not from Misc/params.osp, so that trying settings
+ * in params.osp does not move the gate's figures.
+ *
+ * A change that is meant to move the figures is committed together
+ * with baselines regenerated by -update.
+ *
+ *     make regress [OPTS="-tolerance 0.05"]
+ *     make regress OPTS=-update
+ */
+
+package osp.Threads;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+   Compares scheduling metrics on fixed workloads against baselines.
+
+   @OSPProject Threads
+*/
+public class SchedulerRegression
+{
+    static final String BASELINES = "Misc/baselines.csv";
+    static final String BASE = "Misc/regress.osp";
+    static final String[] POLICIES = { "RR", "Stride", "Lottery", "Priority" };
+    static final int[] THREADS = { 30, 300 };
+    static final long LENGTH = 50000;
+    static final String SEED = "1";
+
+    static final String[] METRICS = {
+        "throughput", "mean ready wait", "p99 ready wait", "mean turnaround",
+        "p99 turnaround", "context switches", "idle ratio"
+    };
+    static final boolean[] HIGHER_IS_BETTER = { true, false, false, false, false, false, false };
+    static final double[] SLACK = { 0.01, 1, 1, 1, 1, 1, 0.01 };    // differences too small to count
+
+    /** Runs one workload and returns its metrics, in METRICS order. */
+    static double[] measure(File dir, File base, WorkloadProfile profile, String policy, int threads)
+        throws Exception
+    {
+        Map<String,String> settings = profile.params(threads, LENGTH);
+        settings.put("Scheduler.Policy", policy);
+        settings.put("Kernel.Profile", profile.shortName);
+        settings.put("Kernel.Seed", SEED);
+        Map<String,String> stats = SchedulerBenchmark.run(dir, base, settings, true);
+
+        double[] m = new double[METRICS.length];
+        m[0] = 1000.0 * number(stats, "CPU bursts completed") / LENGTH;
+        for(int i = 1; i < METRICS.length; i++)
+            m[i] = number(stats, METRICS[i]);
+        return m;
+    }
+
+    private static double number(Map<String,String> stats, String key)
+    {
+        String v = stats.get(key);
+        if(v == null)
+            throw new IllegalStateException("the run printed no \"" + key + "\"");
+        return Double.parseDouble(v.split("\\s+")[0]);
+    }
+
+    /** Baselines by workload name, or an empty map if none are checked in. */
+    static Map<String,double[]> readBaselines(File file) throws Exception
+    {
+        Map<String,double[]> baselines = new LinkedHashMap<String,double[]>();
+        if(!file.exists())
+            return baselines;
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try
+        {
+            String line = in.readLine();                // header
+            while((line = in.readLine()) != null)
+            {
+                String[] f = line.split(",");
+                if(f.length != METRICS.length + 1)
+                    continue;
+                double[] m = new double[METRICS.length];
+                for(int i = 0; i < m.length; i++)
+                    m[i] = Double.parseDouble(f[i+1]);
+                baselines.put(f[0], m);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return baselines;
+    }
+
+    static void writeBaselines(File file, Map<String,double[]> results) throws Exception
+    {
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        StringBuffer header = new StringBuffer("workload");
+        for(String metric : METRICS)
+            header.append(',').append(metric);
+        out.println(header);
+        for(Map.Entry<String,double[]> e : results.entrySet())
+        {
+            StringBuffer row = new StringBuffer(e.getKey());
+            for(double v : e.getValue())
+                row.append(',').append((float)v);
+            out.println(row);
+        }
+        out.close();
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        double tolerance = 0.10;
+        boolean update = false;
+        File baselineFile = new File(BASELINES);
+        File out = new File("regress");
+        int jobs = Runtime.getRuntime().availableProcessors();
+
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("-update"))
+                update = true;
+            else if(args[i].equals("-tolerance") && i + 1 < args.length)
+                tolerance = Double.parseDouble(args[++i]);
+            else if(args[i].equals("-baselines") && i + 1 < args.length)
+                baselineFile = new File(args[++i]);
+            else if(args[i].equals("-jobs") && i + 1 < args.length)
+                jobs = Integer.parseInt(args[++i]);
+        }
+        final File base = new File(BASE).getAbsoluteFile();
+        final File dir = out.getAbsoluteFile();
+
+        // Every profile under every policy at each load, in parallel
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        List<String> names = new ArrayList<String>();
+        List<Future<double[]>> runs = new ArrayList<Future<double[]>>();
+        for(final WorkloadProfile profile : WorkloadProfile.values())
+        {
+            for(final String policy : POLICIES)
+            {
+                for(final int threads : THREADS)
+                {
+                    final String name = profile.shortName + "-" + policy + "-" + threads;
+                    names.add(name);
+                    runs.add(pool.submit(new Callable<double[]>() {
+                        public double[] call() throws Exception
+                        {
+                            return measure(new File(dir, name), base, profile, policy, threads);
+                        }
+                    }));
+                }
+            }
+        }
+        Map<String,double[]> results = new LinkedHashMap<String,double[]>();
+        for(int i = 0; i < names.size(); i++)
+            results.put(names.get(i), runs.get(i).get());
+        pool.shutdown();
+
+        if(update)
+        {
+            writeBaselines(baselineFile, results);
+            System.out.println("Baselines for " + results.size() + " workloads written to " + baselineFile);
+            return;
+        }
+
+        Map<String,double[]> baselines = readBaselines(baselineFile);
+        int regressions = 0, missing = 0;
+        System.out.printf("%-16s %-18s %12s %12s %8s%n", "workload", "metric", "baseline", "now", "change");
+        for(Map.Entry<String,double[]> e : results.entrySet())
+        {
+            double[] was = baselines.get(e.getKey());
+            double[] now = e.getValue();
+            if(was == null)
+            {
+                System.out.printf("%-16s no baseline%n", e.getKey());
+                missing++;
+                continue;
+            }
+            for(int i = 0; i < METRICS.length; i++)
+            {
+                double worse = HIGHER_IS_BETTER[i] ? was[i] - now[i] : now[i] - was[i];
+                double change = was[i] == 0 ? Math.signum(now[i]) : (now[i] - was[i]) / was[i];
+                String verdict = "";
+                if(Math.abs(now[i] - was[i]) > SLACK[i] && Math.abs(change) > tolerance)
+                {
+                    verdict = worse > 0 ? "REGRESSED" : "improved";
+                    if(worse > 0)
+                        regressions++;
+                }
+                System.out.printf("%-16s %-18s %12.3f %12.3f %+7.1f%% %s%n",
+                                  e.getKey(), METRICS[i], was[i], now[i], 100 * change, verdict);
+            }
+        }
+
+        if(regressions > 0 || missing > 0)
+        {
+            System.out.println(regressions + " metric(s) regressed by more than "
+                               + Math.round(100 * tolerance) + "%, " + missing + " workload(s) without a baseline."
+                               + " If this is intended, rerun with -update and commit " + baselineFile);
+            System.exit(1);
+        }
+        System.out.println("All " + results.size() + " workloads within " + Math.round(100 * tolerance)
+                           + "% of " + baselineFile);
+    }
+}
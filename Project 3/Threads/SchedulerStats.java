@@ -0,0 +1,435 @@
+/* OSP2 Threads - scheduler statistics
+ *
+ * Counters kept by the dispatcher. They are printed to the log at the
+ * same ticks OSP takes its snapshots, and once more on stdout when the
+ * simulation exits so that scripted runs can pick them up.
+ */
+
+package osp.Threads;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import osp.Utilities.*;
+import osp.Hardware.*;
+
+/**
+   Counters and wait-time figures collected by ThreadCB.
+
+   @OSPProject Threads
+*/
+class SchedulerStats
+{
+    static long dispatches;             // successful do_dispatch calls
+    static long idleDispatches;         // do_dispatch calls that found nothing ready
+    static long contextSwitches;        // dispatches that put a different thread on the CPU
+    static long idleTicks;              // ticks the CPU spent with nothing to run
+    private static long idleSince;      // when the CPU last went idle, -1 while busy
+    static long addressSpaceSwitches;   // dispatches that loaded another task's page table
+    static long switchesSaved;          // page table loads avoided by picking out of FIFO order
+
+    static long dispatchNanos;          // wall time spent inside do_dispatch
+    static long threadsKilled;          // threads that finished
+    static int maxReadyLength;          // longest the ready queue got
+
+    static long readyWaits;             // number of ready -> running transitions
+    static long readyWaitTotal;         // ticks spent on the ready queue, summed
+    static long readyWaitMax;           // longest single stay on the ready queue
+    static Histogram readyWaitTimes;    // distribution of the same stays
+    static Histogram turnarounds;       // ready after creation or a wait, until the next block
+    static long agedThreads;            // threads that waited past AgingBound
+    static long forcedDispatches;       // overdue threads run ahead of the policy's pick
+    static long timerInterrupts;        // timer interrupts handled
+    static long idleTimerInterrupts;    // ... of which came with no thread ready
+    static long quantaExtended;         // tickless: expiries that left the running thread on the CPU
+
+    static int eventsWaitedOn;          // events with at least one indexed waiter
+    static int waitEntries;             // (thread, event) pairs currently indexed
+    static int maxEventWaiters;         // most threads seen waiting on one event
+    static int maxWaitDepth;            // deepest wait nesting seen
+    static long killDetaches;           // event queues a killed thread was taken off
+
+    static long entitiesAllocated;      // scheduler entities created
+    static long entitiesReused;         // scheduler entities taken from the pool
+
+    static long rtAdmitted;             // threads admitted to the EDF class
+    static long rtRejected;             // threads refused by EDF admission control
+    static long rtJobs;                 // real-time jobs released
+    static long rtMisses;               // jobs that finished after their deadline
+    static long rtMaxLateness;          // worst overrun past a deadline
+    static long rtOverruns;             // jobs that used up their budget and were demoted
+
+    static long wakeupsKept;            // wakeups that left the running thread on the CPU
+    static long wakeupPreemptions;      // wakeups that took the CPU from it
+
+    static long idleTicksReclaimed;     // idle ticks spent on IdleWork jobs
+    static long idleSteps;              // IdleWork job steps taken
+    static long idleStepsCut;           // ... of which a thread turned up during
+    static boolean reportPending;       // a snapshot report left for idle time
+
+    static Histogram portLatencies;     // from a port waking a thread until it runs
+    static long handoffs;               // port wakeups that were handed the CPU
+    static long ticksDonated;           // quantum left over that those handoffs passed on
+
+    static long deadlocksFound;         // cycles the wait-for graph closed
+    static int maxDeadlockSize;         // most threads in one of them
+    static long scanDelay;              // ticks until a DetectionInterval scan, summed over them
+
+    static long threadsRejected;        // creations refused by admission control
+    static long threadsDeferred;        // creations held back by admission control
+    static int maxDeferred;             // most threads held back at once
+
+    private static long reportInterval;
+    private static long nextReport;
+    private static boolean hooked;
+
+    /**
+       Resets the counters. Called from ThreadCB.init().
+    */
+    static void init()
+    {
+        dispatches = 0;
+        idleDispatches = 0;
+        contextSwitches = 0;
+        idleTicks = 0;
+        idleSince = HClock.get();
+        addressSpaceSwitches = 0;
+        switchesSaved = 0;
+        dispatchNanos = 0;
+        threadsKilled = 0;
+        maxReadyLength = 0;
+        readyWaits = 0;
+        readyWaitTotal = 0;
+        readyWaitMax = 0;
+        readyWaitTimes = new Histogram();
+        turnarounds = new Histogram();
+        agedThreads = 0;
+        forcedDispatches = 0;
+        timerInterrupts = 0;
+        idleTimerInterrupts = 0;
+        quantaExtended = 0;
+        eventsWaitedOn = 0;
+        waitEntries = 0;
+        maxEventWaiters = 0;
+        maxWaitDepth = 0;
+        killDetaches = 0;
+        entitiesAllocated = 0;
+        entitiesReused = 0;
+        rtAdmitted = 0;
+        rtRejected = 0;
+        rtJobs = 0;
+        rtMisses = 0;
+        rtMaxLateness = 0;
+        rtOverruns = 0;
+        wakeupsKept = 0;
+        wakeupPreemptions = 0;
+        idleTicksReclaimed = 0;
+        idleSteps = 0;
+        idleStepsCut = 0;
+        reportPending = false;
+        portLatencies = new Histogram();
+        handoffs = 0;
+        ticksDonated = 0;
+        deadlocksFound = 0;
+        maxDeadlockSize = 0;
+        scanDelay = 0;
+        threadsRejected = 0;
+        threadsDeferred = 0;
+        maxDeferred = 0;
+
+        long length = SchedulerParams.getLong("General.SimulationLength", 0);
+        int snapshots = SchedulerParams.getInt("General.NumberOfSnapshots", 0);
+        reportInterval = snapshots > 0 ? length / snapshots : 0;
+        nextReport = reportInterval;
+
+        if(!hooked)
+        {
+            hooked = true;
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run()
+                {
+                    System.out.println();
+                    System.out.println(summary());
+                }
+            });
+        }
+    }
+
+    /** Records how long a thread sat on the ready queue before running. */
+    static void readyWait(long ticks)
+    {
+        readyWaits++;
+        readyWaitTotal += ticks;
+        if(ticks > readyWaitMax)
+            readyWaitMax = ticks;
+        readyWaitTimes.add(ticks);
+    }
+
+    /** The dispatcher found nothing to run. */
+    static void idle(long now)
+    {
+        if(idleSince < 0)
+            idleSince = now;
+    }
+
+    /** The dispatcher put a thread on the CPU; switched if it is not the one it took off. */
+    static void busy(long now, boolean switched)
+    {
+        if(idleSince >= 0)
+        {
+            idleTicks += now - idleSince;
+            idleSince = -1;
+        }
+        if(switched)
+            contextSwitches++;
+    }
+
+    /** Share of the simulation so far the CPU has been idle. */
+    static double idleRatio()
+    {
+        long now = HClock.get();
+        long idle = idleTicks + (idleSince >= 0 ? now - idleSince : 0);
+        return now <= 0 ? 0 : (double)idle / now;
+    }
+
+    static void dispatchTime(long nanos)
+    {
+        dispatchNanos += nanos;
+    }
+
+    static void readyLength(int length)
+    {
+        if(length > maxReadyLength)
+            maxReadyLength = length;
+    }
+
+    /** Mean wall time of a do_dispatch call, in nanoseconds. */
+    static double meanDispatchNanos()
+    {
+        long calls = dispatches + idleDispatches;
+        return calls == 0 ? 0 : (double)dispatchNanos / calls;
+    }
+
+    static double meanReadyWait()
+    {
+        return readyWaits == 0 ? 0 : (double)readyWaitTotal / readyWaits;
+    }
+
+    /** Writes every counter, for a checkpoint; see SchedulerCheckpoint. */
+    static void save(DataOutputStream out) throws IOException
+    {
+        out.writeLong(dispatches);
+        out.writeLong(idleDispatches);
+        out.writeLong(addressSpaceSwitches);
+        out.writeLong(switchesSaved);
+        out.writeLong(dispatchNanos);
+        out.writeLong(threadsKilled);
+        out.writeLong(readyWaits);
+        out.writeLong(readyWaitTotal);
+        out.writeLong(readyWaitMax);
+        readyWaitTimes.save(out);
+        turnarounds.save(out);
+        out.writeLong(agedThreads);
+        out.writeLong(forcedDispatches);
+        out.writeLong(killDetaches);
+        out.writeLong(entitiesAllocated);
+        out.writeLong(entitiesReused);
+        out.writeLong(rtAdmitted);
+        out.writeLong(rtRejected);
+        out.writeLong(rtJobs);
+        out.writeLong(rtMisses);
+        out.writeLong(rtMaxLateness);
+        out.writeLong(rtOverruns);
+        out.writeLong(wakeupsKept);
+        out.writeLong(wakeupPreemptions);
+        out.writeLong(idleTicksReclaimed);
+        out.writeLong(idleSteps);
+        out.writeLong(idleStepsCut);
+        out.writeBoolean(reportPending);
+        portLatencies.save(out);
+        out.writeLong(handoffs);
+        out.writeLong(ticksDonated);
+        out.writeLong(deadlocksFound);
+        out.writeInt(maxDeadlockSize);
+        out.writeLong(scanDelay);
+        out.writeLong(threadsRejected);
+        out.writeLong(threadsDeferred);
+        out.writeInt(maxDeferred);
+        out.writeLong(nextReport);
+        out.writeLong(timerInterrupts);
+        out.writeLong(idleTimerInterrupts);
+        out.writeLong(quantaExtended);
+        out.writeLong(contextSwitches);
+        out.writeLong(idleTicks);
+        out.writeLong(idleSince);
+        out.writeInt(maxReadyLength);
+        out.writeInt(eventsWaitedOn);
+        out.writeInt(waitEntries);
+        out.writeInt(maxEventWaiters);
+        out.writeInt(maxWaitDepth);
+    }
+
+    static void load(DataInputStream in) throws IOException
+    {
+        dispatches = in.readLong();
+        idleDispatches = in.readLong();
+        addressSpaceSwitches = in.readLong();
+        switchesSaved = in.readLong();
+        dispatchNanos = in.readLong();
+        threadsKilled = in.readLong();
+        readyWaits = in.readLong();
+        readyWaitTotal = in.readLong();
+        readyWaitMax = in.readLong();
+        readyWaitTimes.load(in);
+        turnarounds.load(in);
+        agedThreads = in.readLong();
+        forcedDispatches = in.readLong();
+        killDetaches = in.readLong();
+        entitiesAllocated = in.readLong();
+        entitiesReused = in.readLong();
+        rtAdmitted = in.readLong();
+        rtRejected = in.readLong();
+        rtJobs = in.readLong();
+        rtMisses = in.readLong();
+        rtMaxLateness = in.readLong();
+        rtOverruns = in.readLong();
+        wakeupsKept = in.readLong();
+        wakeupPreemptions = in.readLong();
+        idleTicksReclaimed = in.readLong();
+        idleSteps = in.readLong();
+        idleStepsCut = in.readLong();
+        reportPending = in.readBoolean();
+        portLatencies.load(in);
+        handoffs = in.readLong();
+        ticksDonated = in.readLong();
+        deadlocksFound = in.readLong();
+        maxDeadlockSize = in.readInt();
+        scanDelay = in.readLong();
+        threadsRejected = in.readLong();
+        threadsDeferred = in.readLong();
+        maxDeferred = in.readInt();
+        nextReport = in.readLong();
+        timerInterrupts = in.readLong();
+        idleTimerInterrupts = in.readLong();
+        quantaExtended = in.readLong();
+        contextSwitches = in.readLong();
+        idleTicks = in.readLong();
+        idleSince = in.readLong();
+        maxReadyLength = in.readInt();
+        eventsWaitedOn = in.readInt();
+        waitEntries = in.readInt();
+        maxEventWaiters = in.readInt();
+        maxWaitDepth = in.readInt();
+    }
+
+    /**
+       Called on every dispatch; logs the counters whenever the clock
+       passes one of OSP's snapshot points. With IdleWork on the report
+       waits for idle time, unless the previous one is still waiting.
+    */
+    static void tick(long now)
+    {
+        if(reportInterval <= 0 || now < nextReport)
+            return;
+
+        while(nextReport <= now)
+            nextReport += reportInterval;
+
+        if(ThreadCB.idleWork != null && !reportPending)
+            reportPending = true;
+        else
+            report();
+    }
+
+    static void report()
+    {
+        reportPending = false;
+        MyOut.print("osp.Threads.ThreadCB", summary());
+    }
+
+    /** One-line-per-counter dump of everything collected so far. */
+    static String summary()
+    {
+        StringBuffer buf = new StringBuffer("Scheduler statistics:");
+        buf.append("\n  dispatches: ").append(dispatches);
+        buf.append("\n  idle dispatches: ").append(idleDispatches);
+        buf.append("\n  context switches: ").append(contextSwitches);
+        buf.append("\n  idle ratio: ").append((float)idleRatio());
+        buf.append("\n  mean dispatch ns: ").append((long)meanDispatchNanos());
+        buf.append("\n  threads killed: ").append(threadsKilled);
+        buf.append("\n  max ready queue length: ").append(maxReadyLength);
+        buf.append("\n  address space switches: ").append(addressSpaceSwitches);
+        buf.append("\n  address space switches saved: ").append(switchesSaved);
+        buf.append("\n  mean ready wait: ").append((float)meanReadyWait());
+        buf.append("\n  max ready wait: ").append(readyWaitMax);
+        buf.append("\n  p99 ready wait: ").append(readyWaitTimes.percentile(0.99));
+        buf.append("\n  CPU bursts completed: ").append(turnarounds.count());
+        buf.append("\n  mean turnaround: ").append((float)turnarounds.mean());
+        buf.append("\n  p99 turnaround: ").append(turnarounds.percentile(0.99));
+        buf.append("\n  threads past aging bound: ").append(agedThreads);
+        buf.append("\n  forced dispatches: ").append(forcedDispatches);
+        buf.append("\n  timer interrupts: ").append(timerInterrupts)
+           .append(" (").append(idleTimerInterrupts).append(" with nothing ready)");
+        buf.append("\n  quanta extended: ").append(quantaExtended);
+        buf.append("\n  events waited on: ").append(eventsWaitedOn)
+           .append(" (").append(waitEntries).append(" waiting entries)");
+        buf.append("\n  max waiters on one event: ").append(maxEventWaiters);
+        buf.append("\n  max wait nesting: ").append(maxWaitDepth);
+        buf.append("\n  event queues left by killed threads: ").append(killDetaches);
+        buf.append("\n  scheduler entities allocated/reused: ")
+           .append(entitiesAllocated).append("/").append(entitiesReused);
+        SchedTable.census(HClock.get());
+        buf.append("\n  live threads ready/running/waiting: ").append(SchedTable.live()).append(" ")
+           .append(SchedTable.states[SchedTable.READY]).append("/")
+           .append(SchedTable.states[SchedTable.RUNNING]).append("/")
+           .append(SchedTable.states[SchedTable.WAITING]);
+        buf.append("\n  oldest ready/waiting thread: ")
+           .append(SchedTable.oldestReady).append("/").append(SchedTable.oldestWaiting);
+        buf.append("\n  CPU of live threads total/max: ")
+           .append(SchedTable.cpuTotal).append("/").append(SchedTable.cpuMax)
+           .append(" (at most ").append(SchedTable.dispatchMax).append(" dispatches)");
+        if(rtAdmitted + rtRejected > 0)
+        {
+            buf.append("\n  real-time threads admitted/rejected: ")
+               .append(rtAdmitted).append("/").append(rtRejected);
+            buf.append("\n  real-time jobs: ").append(rtJobs);
+            buf.append("\n  deadline misses: ").append(rtMisses);
+            buf.append("\n  max lateness: ").append(rtMaxLateness);
+            buf.append("\n  budget overruns: ").append(rtOverruns);
+        }
+        if(wakeupsKept + wakeupPreemptions > 0)
+            buf.append("\n  wakeups that preempted/left the runner: ")
+               .append(wakeupPreemptions).append("/").append(wakeupsKept);
+        if(idleSteps > 0)
+            buf.append("\n  idle ticks reclaimed: ").append(idleTicksReclaimed)
+               .append(" (").append(idleSteps).append(" background steps, ")
+               .append(idleStepsCut).append(" cut short by a thread)");
+        if(portLatencies.count() > 0)
+        {
+            buf.append("\n  port wakeups: ").append(portLatencies.count())
+               .append(" (mean latency ").append((float)portLatencies.mean())
+               .append(", p99 ").append(portLatencies.percentile(0.99)).append(")");
+            buf.append("\n  port handoffs: ").append(handoffs)
+               .append(" (").append(ticksDonated).append(" ticks donated)");
+        }
+        if(ThreadCB.waitFor != null)
+        {
+            buf.append("\n  deadlocks found: ").append(deadlocksFound);
+            if(deadlocksFound > 0)
+                buf.append(" (up to ").append(maxDeadlockSize).append(" threads; a periodic scan would come ")
+                   .append(scanDelay / deadlocksFound).append(" ticks later on average)");
+        }
+        if(threadsRejected + threadsDeferred > 0)
+        {
+            buf.append("\n  threads rejected/deferred at admission: ")
+               .append(threadsRejected).append("/").append(threadsDeferred);
+            buf.append("\n  max threads deferred: ").append(maxDeferred);
+        }
+        if(ThreadCB.readyQueue != null)
+            ThreadCB.readyQueue.report(buf);
+        if(ThreadCB.profiler != null)
+            ThreadCB.profiler.report(buf);
+        return buf.toString();
+    }
+}
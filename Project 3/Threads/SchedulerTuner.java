@@ -0,0 +1,329 @@
+/* OSP2 Threads - scheduler parameter tuner
+ *
+ * Searches the [Scheduler] settings for the values that minimise one of
+ * the statistics ThreadCB prints (mean turnaround, p99 ready wait, ...)
+ * on a given workload file, such as one written by WorkloadGenerator.
+ *
+ * The search is successive halving: a budget of B simulations buys
+ * about 4B/7 random candidates, run at a quarter of the simulation
+ * length. The better half goes on to half length, and the better half
+ * of those to full length, where the winner is picked. The settings
+ * already in the workload file run at every length, as the baseline
+ * the winner is compared against.
+ * Runs go in parallel, one simulation per core by default.
+ *
+ * A search space entry is Key=lo:hi for an integer range (sampled
+ * log-uniformly if hi is at least ten times lo > 0) or Key=a|b|c for a
+ * choice. Keys without a section are [Scheduler] keys. With the kernel
+ * backend (make simtune) each candidate can be averaged over several
+ * seeds.
+ *
+ *     make tune OPTS="-workload big.osp -objective 'p99 ready wait' -budget 60 \
+ *                     [-space Quantum=5:400,Policy=RR|Stride] [-seeds 1,2,3] [-jobs 4]"
+ */
+
+package osp.Threads;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+   Budgeted search over scheduler settings, driven by simulation results.
+
+   @OSPProject Threads
+*/
+public class SchedulerTuner
+{
+    static final String DEFAULT_SPACE = "Quantum=5:400,AgingBound=0|500|1000|2000|5000,"
+        + "Policy=RR|Stride|Lottery,Tickless=0|1,TaskAffinity=0|1";
+
+    /** One point of the search space and how it scored. */
+    static class Candidate
+    {
+        Map<String,String> settings = new LinkedHashMap<String,String>();
+        double score = Double.POSITIVE_INFINITY;
+        int id;
+    }
+
+    private File workload;
+    private File out;
+    private boolean kernel;
+    private String objective = "mean turnaround";
+    private String[] seeds = { "1" };
+    private long length;
+    private boolean checked;            // the objective was found in a run's statistics
+
+    private String[] keys;              // search space, "Section.Key"
+    private String[][] choices;         // choices per key, or null for a range
+    private long[][] ranges;            // lo, hi per key for ranges
+
+    /** Parses "Key=lo:hi,Key=a|b" into the search space. */
+    void space(String spec)
+    {
+        String[] entries = spec.split(",");
+        keys = new String[entries.length];
+        choices = new String[entries.length][];
+        ranges = new long[entries.length][];
+        for(int i = 0; i < entries.length; i++)
+        {
+            String[] kv = entries[i].split("=", 2);
+            keys[i] = kv[0].indexOf('.') < 0 ? "Scheduler." + kv[0] : kv[0];
+            if(kv[1].indexOf(':') > 0)
+            {
+                String[] r = kv[1].split(":");
+                ranges[i] = new long[] { Long.parseLong(r[0]), Long.parseLong(r[1]) };
+            }
+            else
+                choices[i] = kv[1].split("\\|");
+        }
+    }
+
+    Candidate sample(Random random)
+    {
+        Candidate c = new Candidate();
+        for(int i = 0; i < keys.length; i++)
+        {
+            String value;
+            if(choices[i] != null)
+                value = choices[i][random.nextInt(choices[i].length)];
+            else
+            {
+                long lo = ranges[i][0], hi = ranges[i][1];
+                if(lo > 0 && hi >= 10 * lo)
+                    value = Long.toString(Math.round(lo * Math.pow((double)hi / lo, random.nextDouble())));
+                else
+                    value = Long.toString(lo + (long)(random.nextDouble() * (hi - lo + 1)));
+            }
+            c.settings.put(keys[i], value);
+        }
+        return c;
+    }
+
+    /**
+       The first run to finish settles whether the objective names a
+       statistics line at all; a misspelt one would otherwise score every
+       candidate +Infinity and crown the baseline.
+    */
+    private synchronized void check(Map<String,String> stats)
+    {
+        if(checked)
+            return;
+        if(stats.isEmpty())
+            throw new IllegalArgumentException("the first run printed no statistics");
+        if(!stats.containsKey(objective) || Double.isNaN(leading(stats.get(objective))))
+        {
+            StringBuffer known = new StringBuffer();
+            for(String key : new TreeSet<String>(stats.keySet()))
+            {
+                if(!Double.isNaN(leading(stats.get(key))))
+                    known.append("\n  ").append(key);
+            }
+            throw new IllegalArgumentException("unknown objective '" + objective + "'; the numeric statistics are:" + known);
+        }
+        checked = true;
+    }
+
+    /** The leading number of a statistics line, or NaN. */
+    private static double leading(String v)
+    {
+        try
+        {
+            return Double.parseDouble(v.split("\\s+")[0]);
+        }
+        catch(NumberFormatException e)
+        {
+            return Double.NaN;
+        }
+    }
+
+    /** The objective's value in one run's statistics; +Infinity if a run failed to report it. */
+    private double value(Map<String,String> stats)
+    {
+        check(stats);
+        double v = stats.containsKey(objective) ? leading(stats.get(objective)) : Double.NaN;
+        return Double.isNaN(v) ? Double.POSITIVE_INFINITY : v;
+    }
+
+    /** Runs every candidate at the given length, in parallel, and sorts them best first. */
+    void evaluate(List<Candidate> candidates, final long ticks, int rung, int jobs) throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        List<Future<Double>> results = new ArrayList<Future<Double>>();
+        for(final Candidate c : candidates)
+        {
+            final File dir = new File(out, "r" + rung + "-c" + c.id);
+            results.add(pool.submit(new Callable<Double>() {
+                public Double call() throws Exception
+                {
+                    double sum = 0;
+                    for(String seed : seeds)
+                    {
+                        Map<String,String> settings = new LinkedHashMap<String,String>(c.settings);
+                        settings.put("General.SimulationLength", Long.toString(ticks));
+                        settings.put("Kernel.Seed", seed);
+                        File run = new File(dir, "s" + seed);
+                        sum += value(SchedulerBenchmark.run(run, workload, settings, kernel));
+                        delete(run);
+                    }
+                    delete(dir);
+                    return sum / seeds.length;
+                }
+            }));
+        }
+        try
+        {
+            for(int i = 0; i < candidates.size(); i++)
+                candidates.get(i).score = results.get(i).get();
+        }
+        catch(ExecutionException e)
+        {
+            pool.shutdownNow();
+            if(e.getCause() instanceof IllegalArgumentException)
+                throw (IllegalArgumentException)e.getCause();
+            throw e;
+        }
+        pool.shutdown();
+
+        Collections.sort(candidates, new Comparator<Candidate>() {
+            public int compare(Candidate a, Candidate b)
+            {
+                return Double.compare(a.score, b.score);
+            }
+        });
+    }
+
+    private static void delete(File f)
+    {
+        File[] children = f.listFiles();
+        if(children != null)
+        {
+            for(File child : children)
+                delete(child);
+        }
+        f.delete();
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        SchedulerTuner tuner = new SchedulerTuner();
+        String space = DEFAULT_SPACE;
+        int budget = 30;
+        int jobs = Runtime.getRuntime().availableProcessors();
+        long seed = 1;
+        tuner.workload = new File(SchedulerParams.PARAMS_FILE);
+        tuner.out = new File("tune");
+
+        for(int i = 0; i + 1 < args.length; i += 2)
+        {
+            if(args[i].equals("-workload"))
+                tuner.workload = new File(args[i+1]);
+            else if(args[i].equals("-objective"))
+                tuner.objective = args[i+1];
+            else if(args[i].equals("-space"))
+                space = args[i+1];
+            else if(args[i].equals("-budget"))
+                budget = Integer.parseInt(args[i+1]);
+            else if(args[i].equals("-jobs"))
+                jobs = Integer.parseInt(args[i+1]);
+            else if(args[i].equals("-seeds"))
+                tuner.seeds = args[i+1].split(",");
+            else if(args[i].equals("-seed"))
+                seed = Long.parseLong(args[i+1]);
+            else if(args[i].equals("-backend"))
+                tuner.kernel = args[i+1].equals("kernel");
+            else if(args[i].equals("-out"))
+                tuner.out = new File(args[i+1]);
+        }
+        tuner.workload = tuner.workload.getAbsoluteFile();
+        tuner.out.mkdirs();
+        tuner.space(space);
+        Map<String,String> base = SchedulerParams.read(tuner.workload.getPath());
+        tuner.length = Long.parseLong(base.containsKey("General.SimulationLength")
+                                      ? base.get("General.SimulationLength") : "250000");
+
+        // Candidate 0 is the workload file's own settings
+        Random random = new Random(seed);
+        int first = Math.max(1, budget * 4 / 7);
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        Candidate baseline = new Candidate();
+        for(String key : tuner.keys)
+        {
+            if(base.containsKey(key))
+                baseline.settings.put(key, base.get(key));
+        }
+        candidates.add(baseline);
+        while(candidates.size() < first)
+        {
+            Candidate c = tuner.sample(random);
+            c.id = candidates.size();
+            candidates.add(c);
+        }
+
+        PrintWriter csv = new PrintWriter(new FileWriter(new File(tuner.out, "tune.csv")));
+        StringBuffer header = new StringBuffer("rung,ticks,candidate");
+        for(String key : tuner.keys)
+            header.append(',').append(key);
+        csv.println(header + "," + tuner.objective);
+
+        System.out.println("Tuning " + tuner.objective + " on " + tuner.workload + " ("
+                           + (tuner.kernel ? "kernel" : "OSP") + ", " + jobs + " jobs)");
+        long started = System.currentTimeMillis();
+        for(int rung = 0; rung < 3; rung++)
+        {
+            long ticks = tuner.length >> (2 - rung);
+            try
+            {
+                tuner.evaluate(candidates, ticks, rung, jobs);
+            }
+            catch(IllegalArgumentException e)
+            {
+                System.err.println("SchedulerTuner: " + e.getMessage());
+                System.exit(1);
+            }
+            for(Candidate c : candidates)
+            {
+                StringBuffer row = new StringBuffer();
+                row.append(rung).append(',').append(ticks).append(',').append(c.id);
+                for(String key : tuner.keys)
+                    row.append(',').append(c.settings.containsKey(key) ? c.settings.get(key) : "");
+                csv.println(row + "," + c.score);
+            }
+            csv.flush();
+            System.out.printf("rung %d: %3d candidates at %7d ticks, best %.3f (candidate %d), baseline %.3f%n",
+                              rung, candidates.size(), ticks, candidates.get(0).score, candidates.get(0).id,
+                              baseline.score);
+            if(rung < 2)
+            {
+                candidates = new ArrayList<Candidate>(candidates.subList(0, (candidates.size() + 1) / 2));
+                if(!candidates.contains(baseline))
+                    candidates.add(baseline);
+            }
+        }
+        csv.close();
+
+        Candidate best = candidates.get(0);
+        WorkloadGenerator.write(tuner.workload, best.settings, new File(tuner.out, "best.osp"));
+        System.out.println("Best " + tuner.objective + ": " + best.score
+                           + (best == baseline ? " (the workload's own settings)"
+                              : ", against " + baseline.score + " with the workload's own settings"));
+        for(Map.Entry<String,String> e : best.settings.entrySet())
+            System.out.println("  " + e.getKey() + " " + e.getValue());
+        System.out.println("Written to " + new File(tuner.out, "best.osp") + ", all runs in "
+                           + new File(tuner.out, "tune.csv") + " ("
+                           + (System.currentTimeMillis() - started) / 1000 + " s)");
+    }
+}
@@ -0,0 +1,56 @@
+/* OSP2 Threads - random numbers with a saveable state
+ *
+ * java.util.Random keeps its state private, so a checkpoint could only
+ * record the seed a generator started from, not where it has got to.
+ * This subclass runs the same 48-bit linear congruential generator and
+ * exposes its state, which makes it produce exactly the sequence
+ * Random would for the same seed.
+ */
+
+package osp.Threads;
+
+import java.util.Random;
+
+/**
+   A java.util.Random whose state can be read back and restored.
+
+   @OSPProject Threads
+*/
+public class SeededRandom extends Random
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private long state;                 // set by Random's constructor through setSeed()
+
+    public SeededRandom(long seed)
+    {
+        super(seed);
+    }
+
+    public synchronized void setSeed(long seed)
+    {
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    protected int next(int bits)
+    {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int)(state >>> (48 - bits));
+    }
+
+    /** The generator's current state, for a checkpoint. */
+    public long getState()
+    {
+        return state;
+    }
+
+    /** Continues the sequence from a state returned by getState(). */
+    public void setState(long state)
+    {
+        this.state = state & MASK;
+    }
+}
@@ -0,0 +1,51 @@
+/* OSP2 standalone kernel - stand-in for osp.Devices.Device
+ *
+ * I/O is modelled by the kernel as a wait of a drawn length, so devices
+ * hold no queues and there is never pending I/O to cancel.
+ */
+
+package osp.Devices;
+
+import osp.Threads.ThreadCB;
+
+/**
+   An I/O device.
+*/
+public class Device
+{
+    private static Device[] table = new Device[0];
+
+    private int id;
+
+    private Device(int id)
+    {
+        this.id = id;
+    }
+
+    /** Creates the device table. Called by the kernel at startup. */
+    public static void init(int count)
+    {
+        table = new Device[count];
+        for(int i = 0; i < count; i++)
+            table[i] = new Device(i);
+    }
+
+    public static final int getTableSize()
+    {
+        return table.length;
+    }
+
+    public static final Device get(int i)
+    {
+        return table[i];
+    }
+
+    public final int getID()
+    {
+        return id;
+    }
+
+    public void cancelPendingIO(ThreadCB thread)
+    {
+    }
+}
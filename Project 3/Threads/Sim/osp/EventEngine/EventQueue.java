@@ -0,0 +1,153 @@
+/* OSP2 standalone kernel - timing-wheel event queue
+ *
+ * Events are hashed by due tick into a power-of-two ring of slots, one
+ * tick per slot. Events due further out than one revolution share the
+ * slot and are skipped until their round comes up. Scheduling is O(1),
+ * and advancing the clock costs one slot visit per tick.
+ * Within a tick, events run in the order they were scheduled,
+ * including events scheduled for the current tick while it runs.
+ */
+
+package osp.EventEngine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+   Hashed timing wheel of kernel events.
+*/
+public class EventQueue
+{
+    /** One scheduled event. Nodes are recycled once they have run. */
+    static final class Entry
+    {
+        long time;
+        int type;
+        Object target;
+        long tag;                       // event-specific, e.g. a generation number
+        Entry next;
+    }
+
+    private final Entry[] heads;
+    private final Entry[] tails;
+    private final int mask;
+    private long now;
+    private int size;
+    private Entry free;
+
+    public EventQueue(int slots)
+    {
+        int n = Integer.highestOneBit(Math.max(2, slots - 1)) << 1;
+        heads = new Entry[n];
+        tails = new Entry[n];
+        mask = n - 1;
+    }
+
+    public long now()
+    {
+        return now;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /** Schedules an event; times in the past run at the current tick. */
+    public void schedule(long time, int type, Object target, long tag)
+    {
+        Entry e = free;
+        if(e != null)
+            free = e.next;
+        else
+            e = new Entry();
+
+        e.time = Math.max(time, now);
+        e.type = type;
+        e.target = target;
+        e.tag = tag;
+        e.next = null;
+
+        int slot = (int)(e.time & mask);
+        if(tails[slot] == null)
+            heads[slot] = e;
+        else
+            tails[slot].next = e;
+        tails[slot] = e;
+        size++;
+    }
+
+    /**
+       Removes and returns the next event due at or before limit,
+       advancing the clock to its tick, or returns null (with the clock
+       at limit) when there is none. The caller hands the entry back
+       with recycle() once it has looked at it.
+    */
+    Entry next(long limit)
+    {
+        while(size > 0 && now <= limit)
+        {
+            int slot = (int)(now & mask);
+            Entry prev = null;
+            for(Entry e = heads[slot]; e != null; prev = e, e = e.next)
+            {
+                if(e.time != now)
+                    continue;
+                if(prev == null)
+                    heads[slot] = e.next;
+                else
+                    prev.next = e.next;
+                if(tails[slot] == e)
+                    tails[slot] = prev;
+                size--;
+                return e;
+            }
+            if(now == limit)
+                break;
+            now++;
+        }
+        if(now < limit)
+            now = limit;
+        return null;
+    }
+
+    /** The pending events in the order they will run, for a checkpoint. */
+    List<Entry> pending()
+    {
+        List<Entry> all = new ArrayList<Entry>(size);
+        for(int i = 0; i < heads.length; i++)
+        {
+            for(Entry e = heads[(int)((now + i) & mask)]; e != null; e = e.next)
+                all.add(e);
+        }
+        // Stable, so events due on the same tick keep their order
+        Collections.sort(all, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b)
+            {
+                return a.time < b.time ? -1 : a.time > b.time ? 1 : 0;
+            }
+        });
+        return all;
+    }
+
+    /** Drops every pending event and sets the clock, to restore a checkpoint. */
+    void restart(long time)
+    {
+        for(int i = 0; i < heads.length; i++)
+        {
+            heads[i] = null;
+            tails[i] = null;
+        }
+        size = 0;
+        now = time;
+    }
+
+    void recycle(Entry e)
+    {
+        e.target = null;
+        e.next = free;
+        free = e;
+    }
+}
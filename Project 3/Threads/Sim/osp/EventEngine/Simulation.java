@@ -0,0 +1,680 @@
+/* OSP2 standalone kernel - simulation driver
+ *
+ * Runs the Threads module without OSP.jar. The classes under Sim/
+ * stand in for the framework classes ThreadCB and TimerInterruptHandler
+ * use, with the same names and contracts, so the module compiles
+ * against them unchanged (make fast). This class drives them from a
+ * timing-wheel event queue:
+ *
+ *  - threads arrive as a Poisson stream sized so that about
+ *    AverageNumberOfThreads are alive, live ThreadLifeExpectancy ticks
+ *    on average and are then killed;
+ *  - each thread computes for a CPU burst and then waits for I/O, with
+ *    burst and wait lengths drawn from the workload profile;
+ *  - HTimer.set() arms the timer interrupt, which calls the module's
+ *    TimerInterruptHandler.
+ *
+ * Memory, files and ports are not simulated. Settings come from
+ * Misc/params.osp like OSP's, with the profile and random seed in a
+ * [Kernel] section. Kernel.Priorities N gives each task a priority
+ * drawn from 0..N-1; by default all tasks have priority 0.
+ *
+ * Kernel.Resources 1 simulates the [Resources] table as well:
+ * ResourceTableSize resources of up to MaxResourceInstance instances.
+ * A share Kernel.ResourceRate of CPU bursts ends in a resource request
+ * (ResourceAcquirePercentage of them) or in giving up everything the
+ * thread holds, rather than in I/O; a request that cannot be granted
+ * blocks the thread. Deadlocks are left to resolve themselves as
+ * threads die. Checkpoints do not cover resources.
+ *
+ * -threads N also sizes tasks for N threads, as WorkloadGenerator does.
+ *
+ * Throughput, as measured here: a default run (250000 ticks, about
+ * 24000 events) manages some 90000 events a second, nearly all of it
+ * JIT warm-up; -length 2500000 about 390000, -threads 2000 with
+ * -length 2500000 about 1.9 million, -length 25000000 about 1.35
+ * million. So millions of events a second only come once a run is long
+ * enough to be compiled. What is left in a warm profile is mostly the
+ * stand-in TaskCB's GenericList removal when a thread dies, O(threads
+ * per task) as in OSP, and the aging wheel's sweep.
+ *
+ * -checkpoint file writes the whole simulation state to file at the
+ * first of OSP's snapshot ticks (NumberOfSnapshots) at or after the
+ * -at tick, and carries on. -restore file starts from such a state
+ * instead of from tick 0: the workload (profile, random state, arrival
+ * and life rates) comes from the checkpoint, while the [Scheduler]
+ * settings and the run length come from the current params.osp and
+ * arguments. A warmed-up state can so be run under several policies.
+ *
+ *     make sim OPTS="[-length T] [-threads N] [-profile io] [-seed S] [-log]
+ *                    [-checkpoint file [-at T]] [-restore file]"
+ */
+
+package osp.EventEngine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import osp.Utilities.*;
+import osp.IFLModules.*;
+import osp.Tasks.*;
+import osp.Memory.*;
+import osp.Devices.*;
+import osp.Resources.*;
+import osp.Threads.SchedulerCheckpoint;
+import osp.Threads.SeededRandom;
+import osp.Threads.ThreadCB;
+import osp.Threads.TimerInterruptHandler;
+import osp.Threads.WaitForGraph;
+import osp.Threads.WorkloadProfile;
+
+/**
+   Headless discrete-event kernel for the Threads module.
+*/
+public class Simulation
+{
+    static final int ARRIVAL = 0;       // a new thread is created
+    static final int DEATH = 1;         // target thread reaches the end of its life
+    static final int TIMER = 2;         // timer interrupt, tag is the timer generation
+    static final int BURST_END = 3;     // target thread's CPU burst is over, tag is its run epoch
+    static final int IO_DONE = 4;       // target event's I/O completes
+
+    private static final int MAGIC = 0x4F53504B;        // "OSPK"
+    private static final int VERSION = 1;
+
+    private static EventQueue queue = new EventQueue(4096);
+    private static SeededRandom random;
+    private static WorkloadProfile profile;
+    private static TimerInterruptHandler timerHandler;
+    private static long timerGeneration;
+    private static long timerDue = -1;
+
+    private static List<TaskCB> tasks = new ArrayList<TaskCB>();
+    private static int maxTasks;
+    private static int priorities;
+    private static double meanLife;
+    private static double meanArrival;
+    private static double resourceRate;     // share of bursts that end in a resource call
+    private static int acquirePercentage;
+
+    private static long events;
+    private static long threadsCreated;
+    private static long arrivalsRefused;
+    private static long ioCompletions;
+    private static long resourceRequests;
+    private static long resourceWaits;
+
+    /** A new task, with a random priority if Kernel.Priorities asks for several. */
+    private static TaskCB newTask()
+    {
+        TaskCB task = new TaskCB();
+        if(priorities > 1)
+            task.setPriority(random.nextInt(priorities));
+        return task;
+    }
+
+    public static long now()
+    {
+        return queue.now();
+    }
+
+    /**
+       Called by HTimer.set(): cancels the pending interrupt and arms a
+       new one, or none if ticks is not positive.
+    */
+    public static void setTimer(int ticks)
+    {
+        timerGeneration++;
+        if(ticks <= 0)
+        {
+            timerDue = -1;
+            return;
+        }
+        timerDue = now() + ticks;
+        queue.schedule(timerDue, TIMER, null, timerGeneration);
+    }
+
+    /** Ticks until the timer goes off; negative when it is off, as in OSP. */
+    public static long timerRemaining()
+    {
+        return timerDue < 0 ? -1 : timerDue - now();
+    }
+
+    /** Called when a thread's status becomes ThreadRunning. */
+    public static void startedRunning(ThreadCB thread)
+    {
+        thread.simRunStart = now();
+        if(thread.simBurstLeft <= 0)
+            thread.simBurstLeft = profile.cpuBurst(random, now());
+        queue.schedule(now() + thread.simBurstLeft, BURST_END, thread, thread.simRunEpoch);
+    }
+
+    /** Called when a thread stops being ThreadRunning. */
+    public static void stoppedRunning(ThreadCB thread)
+    {
+        thread.simBurstLeft -= now() - thread.simRunStart;
+        thread.simRunEpoch++;
+    }
+
+    /**
+       One method per event type, so the scheduler's profiler can tell
+       from the stack which kind of event led to a call.
+    */
+    private static void handle(EventQueue.Entry e)
+    {
+        switch(e.type)
+        {
+            case ARRIVAL:
+                arrival();
+            break;
+
+            case DEATH:
+                death((ThreadCB)e.target);
+            break;
+
+            case TIMER:
+                if(e.tag == timerGeneration)
+                    timerInterrupt();
+            break;
+
+            case BURST_END:
+                ThreadCB thread = (ThreadCB)e.target;
+                if(e.tag == thread.simRunEpoch && thread.getStatus() == GlobalVariables.ThreadRunning)
+                    burstEnd(thread);
+            break;
+
+            case IO_DONE:
+                ioInterrupt((Event)e.target);
+            break;
+        }
+    }
+
+    private static void arrival()
+    {
+        int batch = Math.max(1, profile.batch);
+        for(int i = 0; i < batch; i++)
+            createThread();
+        queue.schedule(now() + 1 + exponential(meanArrival * batch), ARRIVAL, null, 0);
+    }
+
+    private static void death(ThreadCB dying)
+    {
+        if(dying.getStatus() != GlobalVariables.ThreadKill)
+            dying.kill();
+    }
+
+    private static void timerInterrupt()
+    {
+        timerDue = -1;
+        timerHandler.handleInterrupt();
+    }
+
+    /** The running thread goes to wait for I/O, or for a resource. */
+    private static void burstEnd(ThreadCB thread)
+    {
+        Event wait = resourceRate > 0 ? useResources(thread) : null;
+        if(wait == null)
+        {
+            wait = new Event();
+            queue.schedule(now() + profile.ioWait(random, now()), IO_DONE, wait, 0);
+        }
+        thread.suspend(wait);
+    }
+
+    private static void ioInterrupt(Event io)
+    {
+        ioCompletions++;
+        io.notifyThreads();
+    }
+
+    /**
+       Kernel.Resources: at the end of some bursts the thread requests
+       instances of a resource, or gives up all it holds, before its
+       I/O.
+
+       @return the request to wait on if it could not be granted, else null
+    */
+    private static Event useResources(ThreadCB thread)
+    {
+        if(random.nextDouble() >= resourceRate)
+            return null;
+        if(random.nextInt(100) >= acquirePercentage)
+        {
+            ResourceCB.release(thread);
+            return null;
+        }
+        ResourceCB r = ResourceCB.getResource(random.nextInt(ResourceCB.getTableSize()));
+        resourceRequests++;
+        RRB rrb = r.request(thread, 1 + random.nextInt(Math.max(1, r.getTotal() / 2)));
+        if(rrb != null)
+            resourceWaits++;
+        return rrb;
+    }
+
+    /** Creates a thread in a task with room for it, starting a task if needed. */
+    private static void createThread()
+    {
+        TaskCB task = null;
+        for(int tries = 0; tries < 4 && !tasks.isEmpty() && task == null; tries++)
+        {
+            int i = random.nextInt(tasks.size());
+            TaskCB t = tasks.get(i);
+            if(t.getStatus() == GlobalVariables.TaskTerm)
+            {
+                tasks.set(i, tasks.get(tasks.size()-1));
+                tasks.remove(tasks.size()-1);
+            }
+            else if(t.getThreadCount() < IflThreadCB.MaxThreadsPerTask)
+                task = t;
+        }
+        if(task == null)
+        {
+            if(tasks.size() >= maxTasks)
+            {
+                arrivalsRefused++;
+                return;
+            }
+            task = newTask();
+            tasks.add(task);
+        }
+
+        ThreadCB thread = IflThreadCB.create(task);
+        if(thread == null)
+        {
+            arrivalsRefused++;
+            return;
+        }
+        threadsCreated++;
+        queue.schedule(now() + 1 + exponential(meanLife), DEATH, thread, 0);
+    }
+
+    /**
+       Writes the kernel's state, then the scheduler's, to file. Only
+       live threads are saved; pending events that concern dead ones
+       would do nothing when they ran and are dropped.
+    */
+    private static void save(File file) throws IOException
+    {
+        List<ThreadCB> threads = new ArrayList<ThreadCB>();
+        for(TaskCB task : tasks)
+        {
+            Enumeration<?> e = task.simThreadList().forwardIterator();
+            while(e.hasMoreElements())
+                threads.add((ThreadCB)e.nextElement());
+        }
+        List<EventQueue.Entry> pending = new ArrayList<EventQueue.Entry>();
+        List<Event> ioEvents = new ArrayList<Event>();
+        long dropped = 0;
+        for(EventQueue.Entry e : queue.pending())
+        {
+            if(e.target instanceof ThreadCB && ((ThreadCB)e.target).getStatus() == GlobalVariables.ThreadKill)
+            {
+                dropped++;
+                continue;
+            }
+            pending.add(e);
+            if(e.type == IO_DONE)
+                ioEvents.add((Event)e.target);
+        }
+        Map<Object,Integer> index = new IdentityHashMap<Object,Integer>();
+        for(List<?> list : new List<?>[] { tasks, threads, ioEvents })
+        {
+            for(int i = 0; i < list.size(); i++)
+                index.put(list.get(i), i);
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(now());
+            out.writeUTF(profile.shortName);
+            out.writeLong(random.getState());
+            out.writeDouble(meanLife);
+            out.writeDouble(meanArrival);
+            out.writeInt(maxTasks);
+            out.writeInt(IflThreadCB.MaxThreadsPerTask);
+            out.writeLong(timerGeneration);
+            out.writeLong(timerDue);
+            out.writeLong(events + dropped);      // as if the dropped events had run
+            out.writeLong(threadsCreated);
+            out.writeLong(arrivalsRefused);
+            out.writeLong(ioCompletions);
+            out.writeInt(IflThreadCB.simNextID());
+            out.writeInt(IflThreadCB.getNumberOfThreads());
+            out.writeInt(TaskCB.simNextID());
+
+            out.writeInt(tasks.size());
+            for(TaskCB task : tasks)
+            {
+                out.writeInt(task.getID());
+                out.writeInt(task.getStatus());
+                out.writeInt(task.getPriority());
+            }
+            out.writeInt(threads.size());
+            for(ThreadCB thread : threads)
+            {
+                out.writeInt(thread.getID());
+                writeRef(out, index, thread.getTask());
+                out.writeInt(thread.getStatus());
+                out.writeInt(thread.getPriority());
+                out.writeLong(thread.getCreationTime());
+                out.writeLong(thread.getTimeOnCPU());
+                out.writeLong(thread.simBurstLeft);
+                out.writeLong(thread.simRunStart);
+                out.writeInt(thread.simRunEpoch);
+            }
+            for(TaskCB task : tasks)
+            {
+                writeList(out, index, task.simThreadList());
+                writeRef(out, index, task.getCurrentThread());
+            }
+            out.writeInt(ioEvents.size());
+            for(Event event : ioEvents)
+                writeList(out, index, event.getThreadList());
+            writeRef(out, index, MMU.getPTBR() == null ? null : MMU.getPTBR().getTask());
+            out.writeLong(MMU.getLoads());
+
+            out.writeInt(pending.size());
+            for(EventQueue.Entry e : pending)
+            {
+                out.writeLong(e.time);
+                out.writeByte(e.type);
+                writeRef(out, index, e.target);
+                out.writeLong(e.tag);
+            }
+
+            new SchedulerCheckpoint(tasks, threads, ioEvents).save(out);
+        }
+        finally
+        {
+            out.close();
+        }
+        System.out.println("Checkpoint at tick " + now() + ": " + threads.size() + " threads, "
+                           + pending.size() + " pending events, " + file.length() + " bytes in " + file);
+    }
+
+    private static void writeRef(DataOutputStream out, Map<Object,Integer> index, Object o) throws IOException
+    {
+        Integer i = o == null ? null : index.get(o);
+        out.writeInt(i == null ? -1 : i);
+    }
+
+    private static void writeList(DataOutputStream out, Map<Object,Integer> index, GenericList list) throws IOException
+    {
+        out.writeInt(list.length());
+        Enumeration<?> e = list.forwardIterator();
+        while(e.hasMoreElements())
+            writeRef(out, index, e.nextElement());
+    }
+
+    private static <T> T ref(DataInputStream in, List<T> list) throws IOException
+    {
+        int i = in.readInt();
+        return i < 0 ? null : list.get(i);
+    }
+
+    /**
+       Rebuilds the state save() wrote. Runs after ThreadCB.init(), in
+       place of creating the initial tasks and threads.
+    */
+    private static void restore(File file) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try
+        {
+            if(in.readInt() != MAGIC || in.readShort() != VERSION)
+                throw new IOException(file + " is not a kernel checkpoint");
+            queue.restart(in.readLong());
+            profile = WorkloadProfile.named(in.readUTF());
+            random.setState(in.readLong());
+            meanLife = in.readDouble();
+            meanArrival = in.readDouble();
+            maxTasks = in.readInt();
+            IflThreadCB.MaxThreadsPerTask = in.readInt();
+            timerGeneration = in.readLong();
+            timerDue = in.readLong();
+            events = in.readLong();
+            threadsCreated = in.readLong();
+            arrivalsRefused = in.readLong();
+            ioCompletions = in.readLong();
+            int nextThreadID = in.readInt();
+            int threadCount = in.readInt();
+            int nextTaskID = in.readInt();
+
+            tasks.clear();
+            for(int n = in.readInt(); n > 0; n--)
+            {
+                TaskCB task = new TaskCB();
+                task.simRestore(in.readInt(), in.readInt(), in.readInt());
+                tasks.add(task);
+            }
+            List<ThreadCB> threads = new ArrayList<ThreadCB>();
+            for(int n = in.readInt(); n > 0; n--)
+            {
+                ThreadCB thread = new ThreadCB();
+                thread.simRestore(in.readInt(), ref(in, tasks), in.readInt(), in.readInt(),
+                                  in.readLong(), in.readLong());
+                thread.simBurstLeft = in.readLong();
+                thread.simRunStart = in.readLong();
+                thread.simRunEpoch = in.readInt();
+                threads.add(thread);
+            }
+            IflThreadCB.simRestoreNumbering(nextThreadID, threadCount);
+            TaskCB.simRestoreNumbering(nextTaskID);
+            for(TaskCB task : tasks)
+            {
+                for(int n = in.readInt(); n > 0; n--)
+                    task.addThread(ref(in, threads));
+                task.setCurrentThread(ref(in, threads));
+            }
+            List<Event> ioEvents = new ArrayList<Event>();
+            for(int n = in.readInt(); n > 0; n--)
+            {
+                Event event = new Event();
+                for(int k = in.readInt(); k > 0; k--)
+                    event.addThread(ref(in, threads));
+                ioEvents.add(event);
+            }
+            TaskCB ptbrTask = ref(in, tasks);
+            MMU.simRestore(ptbrTask == null ? null : ptbrTask.getPageTable(), in.readLong());
+
+            for(int n = in.readInt(); n > 0; n--)
+            {
+                long time = in.readLong();
+                int type = in.readByte();
+                List<?> targets = type == IO_DONE ? ioEvents : threads;
+                Object target = ref(in, targets);
+                queue.schedule(time, type, target, in.readLong());
+            }
+
+            new SchedulerCheckpoint(tasks, threads, ioEvents).restore(in);
+        }
+        finally
+        {
+            in.close();
+        }
+        System.out.println("Restored " + file + " at tick " + now());
+    }
+
+    /** Runs events up to and including tick limit. */
+    private static void run(long limit)
+    {
+        EventQueue.Entry e;
+        while((e = queue.next(limit)) != null)
+        {
+            events++;
+            handle(e);
+            queue.recycle(e);
+        }
+    }
+
+    private static long exponential(double mean)
+    {
+        return (long)(-mean * Math.log(1 - random.nextDouble()));
+    }
+
+    /** Reads Misc/params.osp into "Section.Key" entries, the way OSP lays it out. */
+    private static Map<String,String> readParams(String file) throws IOException
+    {
+        Map<String,String> p = new HashMap<String,String>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try
+        {
+            String section = "";
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                line = line.trim();
+                if(line.length() == 0 || line.startsWith("#"))
+                    continue;
+                if(line.startsWith("["))
+                    section = line.substring(1, line.indexOf(']')).trim();
+                else
+                {
+                    String[] kv = line.split("\\s+", 2);
+                    p.put(section + "." + kv[0], kv.length > 1 ? kv[1].trim() : "");
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return p;
+    }
+
+    private static long get(Map<String,String> p, String key, long def)
+    {
+        String v = p.get(key);
+        return v == null ? def : Long.parseLong(v);
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        Map<String,String> p = readParams("Misc/params.osp");
+        long length = get(p, "General.SimulationLength", 250000);
+        long threads = get(p, "Threads.AverageNumberOfThreads", 13);
+        long seed = get(p, "Kernel.Seed", 1);
+        String prof = p.containsKey("Kernel.Profile") ? p.get("Kernel.Profile") : "phased";
+        boolean threadsGiven = false;
+        File checkpoint = null;
+        File restore = null;
+        long checkpointAt = 0;
+
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("-log"))
+                MyOut.on();
+            else if(i + 1 < args.length)
+            {
+                String v = args[++i];
+                if(args[i-1].equals("-length"))
+                    length = Long.parseLong(v);
+                else if(args[i-1].equals("-threads"))
+                {
+                    threads = Long.parseLong(v);
+                    threadsGiven = true;
+                }
+                else if(args[i-1].equals("-profile"))
+                    prof = v;
+                else if(args[i-1].equals("-seed"))
+                    seed = Long.parseLong(v);
+                else if(args[i-1].equals("-checkpoint"))
+                    checkpoint = new File(v);
+                else if(args[i-1].equals("-at"))
+                    checkpointAt = Long.parseLong(v);
+                else if(args[i-1].equals("-restore"))
+                    restore = new File(v);
+            }
+        }
+
+        random = new SeededRandom(seed);
+        profile = WorkloadProfile.named(prof);
+        if(threadsGiven)
+            p.putAll(profile.params((int)threads, length));     // size tasks for the thread count
+        meanLife = get(p, "Threads.ThreadLifeExpectancy", 5000);
+        meanArrival = meanLife / Math.max(1, threads);
+        maxTasks = (int)get(p, "Tasks.MaxTasks", 6);
+        priorities = (int)get(p, "Kernel.Priorities", 1);
+        IflThreadCB.MaxThreadsPerTask = (int)get(p, "Threads.MaxThreadsPerTask", 15);
+        Device.init((int)get(p, "Devices.NumberOfDevices", 3));
+
+        ThreadCB.init();
+        timerHandler = new TimerInterruptHandler();
+        if(get(p, "Kernel.Resources", 0) != 0)
+        {
+            resourceRate = Double.parseDouble(p.containsKey("Kernel.ResourceRate") ? p.get("Kernel.ResourceRate") : "0.2");
+            acquirePercentage = (int)get(p, "Resources.ResourceAcquirePercentage", 55);
+            int maxInstances = (int)get(p, "Resources.MaxResourceInstance", 10);
+            for(long i = get(p, "Resources.ResourceTableSize", 5); i > 0; i--)
+                new ResourceCB(1 + random.nextInt(maxInstances));
+            WaitForGraph.setHolders(new WaitForGraph.Holders() {
+                public void holders(Event event, List<ThreadCB> out)
+                {
+                    if(event instanceof RRB)
+                        ((RRB)event).getResource().holders(out);
+                }
+            });
+        }
+        if(restore != null)
+            restore(restore);
+        else
+        {
+            for(long i = get(p, "Tasks.AverageNumberOfTasks", 4); i > 0 && tasks.size() < maxTasks; i--)
+                tasks.add(newTask());
+            for(long i = 0; i < threads; i++)
+                createThread();
+            queue.schedule(1 + exponential(meanArrival), ARRIVAL, null, 0);
+        }
+
+        long started = System.nanoTime();
+        if(checkpoint != null && resourceRate > 0)
+            System.out.println("Checkpoints do not cover Kernel.Resources, none written");
+        else if(checkpoint != null)
+        {
+            // The first snapshot tick at or after -at, and after the current tick
+            long interval = Math.max(1, length / Math.max(1, get(p, "General.NumberOfSnapshots", 1)));
+            long at = Math.max(checkpointAt, now() + 1);
+            at = (at + interval - 1) / interval * interval;
+            if(at <= length)
+            {
+                run(at);
+                save(checkpoint);
+            }
+            else
+                System.out.println("No snapshot tick between " + now() + " and " + length
+                                   + ", no checkpoint written");
+        }
+        run(length);
+        long wall = System.nanoTime() - started;
+
+        System.out.println("Kernel: " + length + " ticks, profile " + profile.shortName
+                           + ", seed " + seed);
+        System.out.println("  events: " + events);
+        System.out.println("  wall ms: " + wall / 1000000);
+        System.out.println("  events per second: " + (long)(events / (wall / 1e9)));
+        System.out.println("  threads created: " + threadsCreated
+                           + " (" + arrivalsRefused + " refused)");
+        System.out.println("  I/O completions: " + ioCompletions);
+        if(resourceRate > 0)
+            System.out.println("  resource requests: " + resourceRequests + " (" + resourceWaits + " waited)");
+        System.out.println("  page table loads: " + MMU.getLoads());
+        System.exit(0);
+    }
+}
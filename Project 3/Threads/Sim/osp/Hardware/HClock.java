@@ -0,0 +1,16 @@
+/* OSP2 standalone kernel - stand-in for osp.Hardware.HClock */
+
+package osp.Hardware;
+
+import osp.EventEngine.Simulation;
+
+/**
+   The simulation clock.
+*/
+public class HClock
+{
+    public static final long get()
+    {
+        return Simulation.now();
+    }
+}
@@ -0,0 +1,26 @@
+/* OSP2 standalone kernel - stand-in for osp.Hardware.HTimer
+ *
+ * Setting the timer cancels the interrupt it was set for before;
+ * setting it to 0 or less turns it off.
+ */
+
+package osp.Hardware;
+
+import osp.EventEngine.Simulation;
+
+/**
+   The interval timer.
+*/
+public class HTimer
+{
+    public static final void set(int ticks)
+    {
+        Simulation.setTimer(ticks);
+    }
+
+    /** Ticks left until the timer goes off, negative if it is off. */
+    public static final long get()
+    {
+        return Simulation.timerRemaining();
+    }
+}
@@ -0,0 +1,60 @@
+/* OSP2 standalone kernel - stand-in for osp.IFLModules.Event
+ *
+ * Something threads can wait on. notifyThreads() wakes every waiter,
+ * taking it off the queue first, as OSP does.
+ */
+
+package osp.IFLModules;
+
+import java.util.Enumeration;
+
+import osp.Utilities.*;
+import osp.Threads.ThreadCB;
+
+/**
+   An event with a queue of waiting threads.
+*/
+public class Event extends GlobalVariables
+{
+    private GenericList threads = new GenericList();
+
+    public void addThread(ThreadCB thread)
+    {
+        threads.append(thread);
+    }
+
+    public void removeThread(ThreadCB thread)
+    {
+        threads.remove(thread);
+    }
+
+    public boolean contains(ThreadCB thread)
+    {
+        return threads.contains(thread);
+    }
+
+    public GenericList getThreadList()
+    {
+        return threads;
+    }
+
+    public ThreadCB getHead()
+    {
+        return (ThreadCB)threads.getHead();
+    }
+
+    public int getNumberOfThreadsWaiting()
+    {
+        return threads.length();
+    }
+
+    public void notifyThreads()
+    {
+        while(!threads.isEmpty())
+        {
+            ThreadCB thread = (ThreadCB)threads.removeHead();
+            if(thread.getStatus() >= ThreadWaiting)
+                thread.resume();
+        }
+    }
+}
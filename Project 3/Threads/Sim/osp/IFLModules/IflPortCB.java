@@ -0,0 +1,14 @@
+/* OSP2 standalone kernel - stand-in for osp.IFLModules.IflPortCB
+ *
+ * The kernel simulates no ports; the class is here so that ThreadCB,
+ * which recognises threads waiting on a port, compiles unchanged.
+ */
+
+package osp.IFLModules;
+
+/**
+   A message port threads can wait on.
+*/
+public class IflPortCB extends Event
+{
+}
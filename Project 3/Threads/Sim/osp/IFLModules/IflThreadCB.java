@@ -0,0 +1,177 @@
+/* OSP2 standalone kernel - stand-in for osp.IFLModules.IflThreadCB
+ *
+ * The framework half of ThreadCB: thread identity and status, and the
+ * public entry points (create, kill, suspend, resume, dispatch) that
+ * call into the student's do_* methods. Status changes in and out of
+ * ThreadRunning are reported to the kernel, which is how it knows
+ * when a thread's CPU burst starts and stops.
+ */
+
+package osp.IFLModules;
+
+import osp.Utilities.*;
+import osp.Tasks.*;
+import osp.Threads.ThreadCB;
+import osp.EventEngine.Simulation;
+
+/**
+   Framework side of a thread control block.
+*/
+public class IflThreadCB extends GlobalVariables
+{
+    public static int MaxThreadsPerTask = 15;
+
+    private static int nextID;
+    private static int created;
+
+    private int id;
+    private int status;
+    private int priority;
+    private TaskCB task;
+    private long creationTime;
+    private long timeOnCPU;
+
+    // Kernel bookkeeping, see Simulation
+    public long simBurstLeft;           // CPU ticks left before the thread blocks
+    public long simRunStart;            // tick the thread last started running
+    public int simRunEpoch;             // bumped whenever the thread stops running
+
+    public IflThreadCB()
+    {
+        id = nextID++;
+        creationTime = Simulation.now();
+        status = ThreadReady;
+        created++;
+    }
+
+    /** Resets the thread numbering. Called by the kernel at startup. */
+    public static void reset()
+    {
+        nextID = 0;
+        created = 0;
+    }
+
+    /** Kernel checkpoints: the next thread ID to hand out. */
+    public static int simNextID()
+    {
+        return nextID;
+    }
+
+    public static void simRestoreNumbering(int next, int count)
+    {
+        nextID = next;
+        created = count;
+    }
+
+    /**
+       Kernel checkpoints: sets the framework fields of a rebuilt thread
+       directly, without the status callbacks setStatus() makes.
+    */
+    public final void simRestore(int id, TaskCB task, int status, int priority,
+                                 long creationTime, long timeOnCPU)
+    {
+        this.id = id;
+        this.task = task;
+        this.status = status;
+        this.priority = priority;
+        this.creationTime = creationTime;
+        this.timeOnCPU = timeOnCPU;
+    }
+
+    public static final int getNumberOfThreads()
+    {
+        return created;
+    }
+
+    public final int getID()
+    {
+        return id;
+    }
+
+    public final int getStatus()
+    {
+        return status;
+    }
+
+    public final void setStatus(int s)
+    {
+        int old = status;
+        status = s;
+        if(old == ThreadRunning && s != ThreadRunning)
+        {
+            timeOnCPU += Simulation.now() - simRunStart;
+            Simulation.stoppedRunning((ThreadCB)this);
+        }
+        else if(s == ThreadRunning && old != ThreadRunning)
+            Simulation.startedRunning((ThreadCB)this);
+    }
+
+    public final int getPriority()
+    {
+        return priority;
+    }
+
+    public final void setPriority(int p)
+    {
+        priority = p;
+    }
+
+    public final TaskCB getTask()
+    {
+        return task;
+    }
+
+    public final void setTask(TaskCB t)
+    {
+        task = t;
+    }
+
+    public final long getCreationTime()
+    {
+        return creationTime;
+    }
+
+    public final long getTimeOnCPU()
+    {
+        return timeOnCPU;
+    }
+
+    public static final ThreadCB create(TaskCB task)
+    {
+        return ThreadCB.do_create(task);
+    }
+
+    public final void kill()
+    {
+        ((ThreadCB)this).do_kill();
+    }
+
+    public final void suspend(Event event)
+    {
+        ((ThreadCB)this).do_suspend(event);
+    }
+
+    public final void resume()
+    {
+        ((ThreadCB)this).do_resume();
+    }
+
+    public static final void dispatch()
+    {
+        ThreadCB.do_dispatch();
+    }
+
+    public String toString()
+    {
+        String s;
+        if(status == ThreadReady)
+            s = "R";
+        else if(status == ThreadRunning)
+            s = "RU";
+        else if(status == ThreadKill)
+            s = "K";
+        else
+            s = "W" + (status - ThreadWaiting);
+        return "Thread(" + id + ":" + (task == null ? "-" : Integer.toString(task.getID())) + "/" + s + ")";
+    }
+}
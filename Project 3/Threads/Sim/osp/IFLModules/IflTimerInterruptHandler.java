@@ -0,0 +1,17 @@
+/* OSP2 standalone kernel - stand-in for osp.IFLModules.IflTimerInterruptHandler */
+
+package osp.IFLModules;
+
+import osp.Utilities.*;
+import osp.Threads.TimerInterruptHandler;
+
+/**
+   Framework side of the timer interrupt handler.
+*/
+public class IflTimerInterruptHandler extends GlobalVariables
+{
+    public void handleInterrupt()
+    {
+        ((TimerInterruptHandler)this).do_handleInterrupt();
+    }
+}
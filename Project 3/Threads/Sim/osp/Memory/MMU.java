@@ -0,0 +1,47 @@
+/* OSP2 standalone kernel - stand-in for osp.Memory.MMU
+ *
+ * Just the page table base register; the kernel counts how often it
+ * is loaded with another task's page table.
+ */
+
+package osp.Memory;
+
+/**
+   Memory management unit.
+*/
+public class MMU
+{
+    private static PageTable ptbr;
+    private static long loads;
+
+    public static final PageTable getPTBR()
+    {
+        return ptbr;
+    }
+
+    public static final void setPTBR(PageTable table)
+    {
+        if(table != null && table != ptbr)
+            loads++;
+        ptbr = table;
+    }
+
+    /** Number of times a page table was loaded into the PTBR. */
+    public static long getLoads()
+    {
+        return loads;
+    }
+
+    /** Kernel checkpoints: puts the register and counter back. */
+    public static void simRestore(PageTable table, long loadCount)
+    {
+        ptbr = table;
+        loads = loadCount;
+    }
+
+    public static void reset()
+    {
+        ptbr = null;
+        loads = 0;
+    }
+}
@@ -0,0 +1,27 @@
+/* OSP2 standalone kernel - stand-in for osp.Memory.PageTable
+ *
+ * Memory is not simulated; a page table only identifies its task's
+ * address space.
+ */
+
+package osp.Memory;
+
+import osp.Tasks.TaskCB;
+
+/**
+   Page table of a task.
+*/
+public class PageTable
+{
+    private TaskCB task;
+
+    public PageTable(TaskCB task)
+    {
+        this.task = task;
+    }
+
+    public final TaskCB getTask()
+    {
+        return task;
+    }
+}
@@ -0,0 +1,44 @@
+/* OSP2 standalone kernel - stand-in for osp.Resources.RRB */
+
+package osp.Resources;
+
+import osp.IFLModules.*;
+import osp.Threads.ThreadCB;
+
+/**
+   Resource request block: a request that has to wait, and the event
+   the requesting thread waits on until it is granted.
+*/
+public class RRB extends Event
+{
+    private ThreadCB thread;
+    private ResourceCB resource;
+    private int quantity;
+
+    public RRB(ThreadCB thread, ResourceCB resource, int quantity)
+    {
+        this.thread = thread;
+        this.resource = resource;
+        this.quantity = quantity;
+    }
+
+    public ThreadCB getThread()
+    {
+        return thread;
+    }
+
+    public ResourceCB getResource()
+    {
+        return resource;
+    }
+
+    public int getQuantity()
+    {
+        return quantity;
+    }
+
+    public String toString()
+    {
+        return "RRB(" + thread + ",Resource(" + resource.getID() + "),Requested(" + quantity + "))";
+    }
+}
@@ -0,0 +1,148 @@
+/* OSP2 standalone kernel - stand-in for osp.Resources.ResourceCB
+ *
+ * Resources are only simulated with Kernel.Resources 1: a table of
+ * resources with a number of instances each, which threads request
+ * and release in the course of their run. A request that cannot be
+ * granted at once waits, first come first served, on an RRB until
+ * enough instances are released. Nothing avoids or breaks deadlocks;
+ * threads caught in one stay blocked until they reach the end of
+ * their lives and are killed, which gives up what they hold.
+ *
+ * Who holds a resource is what the scheduler's wait-for graph needs,
+ * so every change in the holders of a resource that has requests
+ * waiting is passed on to WaitForGraph.holdersChanged().
+ */
+
+package osp.Resources;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import osp.Threads.ThreadCB;
+import osp.Threads.WaitForGraph;
+
+/**
+   Resource control block.
+*/
+public class ResourceCB
+{
+    private static List<ResourceCB> table = new ArrayList<ResourceCB>();
+
+    private int id;
+    private int total;
+    private int available;
+    private Map<ThreadCB,Integer> allocated = new LinkedHashMap<ThreadCB,Integer>();
+    private List<RRB> waiting = new ArrayList<RRB>();
+
+    public ResourceCB(int total)
+    {
+        id = table.size();
+        this.total = total;
+        available = total;
+        table.add(this);
+    }
+
+    public static int getTableSize()
+    {
+        return table.size();
+    }
+
+    public static ResourceCB getResource(int i)
+    {
+        return table.get(i);
+    }
+
+    public int getID()
+    {
+        return id;
+    }
+
+    public int getTotal()
+    {
+        return total;
+    }
+
+    public int getAvailable()
+    {
+        return available;
+    }
+
+    /** Adds the threads holding instances of this resource to out. */
+    public void holders(List<ThreadCB> out)
+    {
+        out.addAll(allocated.keySet());
+    }
+
+    /**
+       Grants quantity instances to thread if they are free and no
+       earlier request is waiting.
+
+       @return null if granted, otherwise the RRB the thread has to wait on
+    */
+    public RRB request(ThreadCB thread, int quantity)
+    {
+        quantity = Math.min(quantity, total);
+        if(waiting.isEmpty() && quantity <= available)
+        {
+            allocate(thread, quantity);
+            return null;
+        }
+        RRB rrb = new RRB(thread, this, quantity);
+        waiting.add(rrb);
+        return rrb;
+    }
+
+    private void allocate(ThreadCB thread, int quantity)
+    {
+        Integer held = allocated.get(thread);
+        allocated.put(thread, (held == null ? 0 : held) + quantity);
+        available -= quantity;
+    }
+
+    /** Grants waiting requests in order while they fit. */
+    private void grant()
+    {
+        while(!waiting.isEmpty() && waiting.get(0).getQuantity() <= available)
+        {
+            RRB rrb = waiting.remove(0);
+            allocate(rrb.getThread(), rrb.getQuantity());
+            rrb.notifyThreads();
+        }
+    }
+
+    /** Gives back every instance thread holds. */
+    public static void release(ThreadCB thread)
+    {
+        for(ResourceCB r : table)
+        {
+            Integer held = r.allocated.remove(thread);
+            if(held == null)
+                continue;
+            r.available += held;
+            r.grant();
+            for(int i = 0; i < r.waiting.size(); i++)
+                WaitForGraph.holdersChanged(r.waiting.get(i));
+        }
+    }
+
+    /** A thread was killed: drops its waiting requests and releases what it holds. */
+    public static void giveupResources(ThreadCB thread)
+    {
+        for(ResourceCB r : table)
+        {
+            for(int i = r.waiting.size() - 1; i >= 0; i--)
+            {
+                if(r.waiting.get(i).getThread() == thread)
+                    r.waiting.remove(i);
+            }
+        }
+        release(thread);
+    }
+
+    public String toString()
+    {
+        return "ResourceCB(Id(" + id + "),Total(" + total + "),Avail(" + available + "))";
+    }
+}
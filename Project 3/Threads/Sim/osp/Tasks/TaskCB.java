@@ -0,0 +1,133 @@
+/* OSP2 standalone kernel - stand-in for osp.Tasks.TaskCB
+ *
+ * A task owns a page table and a list of threads. The kernel creates
+ * tasks itself; killing a task kills whatever threads it has left.
+ */
+
+package osp.Tasks;
+
+import osp.Utilities.*;
+import osp.IFLModules.*;
+import osp.Memory.*;
+import osp.Threads.ThreadCB;
+
+/**
+   Task control block.
+*/
+public class TaskCB extends GlobalVariables
+{
+    private static int nextID;
+
+    private int id;
+    private int status = TaskLive;
+    private int priority;
+    private GenericList threads = new GenericList();
+    private ThreadCB currentThread;
+    private PageTable pageTable;
+
+    public TaskCB()
+    {
+        id = nextID++;
+        pageTable = new PageTable(this);
+    }
+
+    /** Resets the task numbering. Called by the kernel at startup. */
+    public static void reset()
+    {
+        nextID = 0;
+    }
+
+    /** Kernel checkpoints: the next task ID to hand out. */
+    public static int simNextID()
+    {
+        return nextID;
+    }
+
+    public static void simRestoreNumbering(int next)
+    {
+        nextID = next;
+    }
+
+    /** Kernel checkpoints: the task's threads, in order. */
+    public final GenericList simThreadList()
+    {
+        return threads;
+    }
+
+    /** Kernel checkpoints: sets the fields of a rebuilt task directly. */
+    public final void simRestore(int id, int status, int priority)
+    {
+        this.id = id;
+        this.status = status;
+        this.priority = priority;
+    }
+
+    public final int getID()
+    {
+        return id;
+    }
+
+    public final int getStatus()
+    {
+        return status;
+    }
+
+    public final int getPriority()
+    {
+        return priority;
+    }
+
+    public final void setPriority(int p)
+    {
+        priority = p;
+    }
+
+    public final PageTable getPageTable()
+    {
+        return pageTable;
+    }
+
+    public final ThreadCB getCurrentThread()
+    {
+        return currentThread;
+    }
+
+    public final void setCurrentThread(ThreadCB thread)
+    {
+        currentThread = thread;
+    }
+
+    public final int getThreadCount()
+    {
+        return threads.length();
+    }
+
+    public final int addThread(ThreadCB thread)
+    {
+        if(status != TaskLive || threads.length() >= IflThreadCB.MaxThreadsPerTask)
+            return FAILURE;
+        threads.append(thread);
+        return SUCCESS;
+    }
+
+    public final int removeThread(ThreadCB thread)
+    {
+        return threads.remove(thread) == null ? FAILURE : SUCCESS;
+    }
+
+    public final void kill()
+    {
+        if(status == TaskTerm)
+            return;
+        while(!threads.isEmpty())
+            ((ThreadCB)threads.getHead()).kill();
+        status = TaskTerm;
+        if(MMU.getPTBR() == pageTable)
+            MMU.setPTBR(null);
+    }
+
+    public String toString()
+    {
+        return "Task(" + id + ")";
+    }
+}
@@ -0,0 +1,170 @@
+/* OSP2 standalone kernel - stand-in for osp.Utilities.GenericList
+ *
+ * Doubly linked list with OSP's GenericList interface. Unlike the
+ * original it is not synchronized: the kernel is single threaded.
+ */
+
+package osp.Utilities;
+
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+/**
+   Doubly linked list of objects.
+*/
+public class GenericList
+{
+    private static class Node
+    {
+        Object item;
+        Node prev;
+        Node next;
+
+        Node(Object item)
+        {
+            this.item = item;
+        }
+    }
+
+    private Node head;
+    private Node tail;
+    private int length;
+
+    public GenericList()
+    {
+    }
+
+    public final int length()
+    {
+        return length;
+    }
+
+    public final boolean isEmpty()
+    {
+        return length == 0;
+    }
+
+    /** Adds at the head. */
+    public final void insert(Object item)
+    {
+        Node n = new Node(item);
+        n.next = head;
+        if(head != null)
+            head.prev = n;
+        else
+            tail = n;
+        head = n;
+        length++;
+    }
+
+    /** Adds at the tail. */
+    public final void append(Object item)
+    {
+        Node n = new Node(item);
+        n.prev = tail;
+        if(tail != null)
+            tail.next = n;
+        else
+            head = n;
+        tail = n;
+        length++;
+    }
+
+    public final boolean contains(Object item)
+    {
+        return find(item) != null;
+    }
+
+    public final Object remove(Object item)
+    {
+        Node n = find(item);
+        if(n == null)
+            return null;
+        unlink(n);
+        return item;
+    }
+
+    public final Object removeHead()
+    {
+        if(head == null)
+            return null;
+        Node n = head;
+        unlink(n);
+        return n.item;
+    }
+
+    public final Object removeTail()
+    {
+        if(tail == null)
+            return null;
+        Node n = tail;
+        unlink(n);
+        return n.item;
+    }
+
+    public final Object getHead()
+    {
+        return head == null ? null : head.item;
+    }
+
+    public final Object getTail()
+    {
+        return tail == null ? null : tail.item;
+    }
+
+    public final Enumeration<Object> forwardIterator()
+    {
+        return new Enumeration<Object>() {
+            Node next = head;
+
+            public boolean hasMoreElements()
+            {
+                return next != null;
+            }
+
+            public Object nextElement()
+            {
+                if(next == null)
+                    throw new NoSuchElementException();
+                Object item = next.item;
+                next = next.next;
+                return item;
+            }
+        };
+    }
+
+    public String toString()
+    {
+        StringBuffer buf = new StringBuffer("(");
+        for(Node n = head; n != null; n = n.next)
+        {
+            if(n != head)
+                buf.append(",");
+            buf.append(n.item);
+        }
+        return buf.append(")").toString();
+    }
+
+    private Node find(Object item)
+    {
+        for(Node n = head; n != null; n = n.next)
+        {
+            if(n.item == item)
+                return n;
+        }
+        return null;
+    }
+
+    private void unlink(Node n)
+    {
+        if(n.prev != null)
+            n.prev.next = n.next;
+        else
+            head = n.next;
+        if(n.next != null)
+            n.next.prev = n.prev;
+        else
+            tail = n.prev;
+        length--;
+    }
+}
@@ -0,0 +1,23 @@
+/* OSP2 standalone kernel - stand-in for osp.Utilities.GlobalVariables
+ *
+ * Only the constants the Threads module uses, with OSP's values.
+ */
+
+package osp.Utilities;
+
+/**
+   Status and return codes shared by all modules.
+*/
+public class GlobalVariables
+{
+    public static final int SUCCESS = 100;
+    public static final int FAILURE = 101;
+
+    public static final int ThreadReady = 20;
+    public static final int ThreadRunning = 21;
+    public static final int ThreadKill = 22;
+    public static final int ThreadWaiting = 30;
+
+    public static final int TaskLive = 0;
+    public static final int TaskTerm = 1;
+}
@@ -0,0 +1,51 @@
+/* OSP2 standalone kernel - stand-in for osp.Utilities.MyOut
+ *
+ * Messages go to stdout, and only when the kernel runs with -log.
+ */
+
+package osp.Utilities;
+
+/**
+   Module message output.
+*/
+public class MyOut
+{
+    private static boolean on;
+
+    public static void on()
+    {
+        on = true;
+    }
+
+    public static void off()
+    {
+        on = false;
+    }
+
+    public static boolean isOn()
+    {
+        return on;
+    }
+
+    public static void print(Object source, String message)
+    {
+        if(on)
+            System.out.println("My:  " + osp.Hardware.HClock.get() + " [" + tag(source) + "]\n\t" + message);
+    }
+
+    public static void warning(Object source, String message)
+    {
+        System.out.println("Warning: " + osp.Hardware.HClock.get() + " [" + tag(source) + "]\n\t" + message);
+    }
+
+    public static void error(Object source, String message)
+    {
+        System.out.println("Error: " + osp.Hardware.HClock.get() + " [" + tag(source) + "]\n\t" + message);
+    }
+
+    private static String tag(Object source)
+    {
+        String name = source instanceof String ? (String)source : source.getClass().getName();
+        return name.startsWith("osp.") ? name.substring(4) : name;
+    }
+}
@@ -0,0 +1,204 @@
+/* OSP2 Threads - stride / lottery ready queue
+ *
+ * Proportional-share scheduling. Every thread holds tickets derived from
+ * its priority; its stride is STRIDE1 / tickets and its pass advances by
+ * the stride for every quantum of CPU it uses. The ready thread with the
+ * smallest pass runs next, so CPU time ends up proportional to tickets.
+ * The lottery variant draws the next thread at random, weighted by
+ * tickets, from the same set of threads; a TicketTree over the heap's
+ * slots keeps the draw O(log n).
+ */
+
+package osp.Threads;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+   Min-heap of ready threads keyed by pass value.
+
+   @OSPProject Threads
+*/
+class StrideQueue extends ReadyQueue
+{
+    static final long STRIDE1 = 1L << 20;
+
+    private ThreadHeap heap = new ThreadHeap() {
+        boolean before(ThreadCB a, ThreadCB b)
+        {
+            long pa = SchedTable.pass[a.sched.slot];
+            long pb = SchedTable.pass[b.sched.slot];
+            if(pa != pb)
+                return pa < pb;
+            return a.sched.seq < b.sched.seq;
+        }
+
+        void placed(int i, ThreadCB thread)
+        {
+            if(lottery)
+                draws.set(i, thread.sched.tickets);
+        }
+
+        void vacated(int i)
+        {
+            if(lottery)
+                draws.set(i, 0);
+        }
+    };
+    private TicketTree draws = new TicketTree();    // tickets by heap slot
+    private long nextSeq;               // FIFO tie break between equal passes
+    private long globalPass;            // pass of the thread dispatched last
+    private long totalTickets;          // tickets of all queued threads
+
+    private boolean lottery;
+    private SeededRandom random;
+    private int quantum;
+    private int baseTickets;
+    private int ticketsPerPriority;
+
+    StrideQueue(boolean lottery)
+    {
+        this.lottery = lottery;
+        random = new SeededRandom(SchedulerParams.getLong("Scheduler.LotterySeed", 1));
+        quantum = SchedulerParams.getInt("Scheduler.Quantum", 50);
+        baseTickets = SchedulerParams.getInt("Scheduler.BaseTickets", 100);
+        ticketsPerPriority = SchedulerParams.getInt("Scheduler.TicketsPerPriority", 10);
+    }
+
+    /**
+       A thread seen for the first time gets its tickets from its
+       priority. A thread coming back from a wait starts no further
+       behind than the last dispatched pass, so sleeping does not earn
+       it a burst of CPU.
+    */
+    void add(ThreadCB thread)
+    {
+        if(thread.sched.tickets == 0)
+        {
+            thread.sched.tickets = Math.max(1, baseTickets + thread.getPriority() * ticketsPerPriority);
+            thread.sched.stride = STRIDE1 / thread.sched.tickets;
+        }
+        if(SchedTable.pass[thread.sched.slot] < globalPass)
+            SchedTable.pass[thread.sched.slot] = globalPass;
+
+        thread.sched.seq = nextSeq++;
+        totalTickets += thread.sched.tickets;
+        heap.add(thread);
+    }
+
+    void remove(ThreadCB thread)
+    {
+        if(heap.contains(thread))
+        {
+            totalTickets -= thread.sched.tickets;
+            heap.remove(thread);
+        }
+    }
+
+    boolean contains(ThreadCB thread)
+    {
+        return heap.contains(thread);
+    }
+
+    /**
+       The global pass advances as far as removeNext() would have taken
+       it, the smallest pass queued, but no further: the forced thread
+       may have a pass far ahead, and newcomers start from the global
+       pass.
+    */
+    void removeForced(ThreadCB thread)
+    {
+        if(!heap.contains(thread))
+            return;
+        long[] pass = SchedTable.pass;
+        long reached = Math.min(pass[heap.peek().sched.slot], pass[thread.sched.slot]);
+        remove(thread);
+        if(reached > globalPass)
+            globalPass = reached;
+    }
+
+    boolean isEmpty()
+    {
+        return heap.isEmpty();
+    }
+
+    int size()
+    {
+        return heap.size();
+    }
+
+    ThreadCB removeNext(ThreadCB preempted)
+    {
+        ThreadCB thread = heap.removeAt(lottery ? draw() : 0);
+        totalTickets -= thread.sched.tickets;
+        long pass = SchedTable.pass[thread.sched.slot];
+        if(pass > globalPass)
+            globalPass = pass;
+        return thread;
+    }
+
+    void charge(ThreadCB thread, long ticks)
+    {
+        SchedTable.pass[thread.sched.slot] += thread.sched.stride * ticks / quantum;
+    }
+
+    /**
+       The running thread keeps the CPU while its pass is still the
+       smallest. A lottery is held every quantum regardless, as long as
+       some thread is ready.
+    */
+    boolean preempts(ThreadCB running)
+    {
+        if(heap.isEmpty())
+            return false;
+        return lottery || !heap.before(running, heap.peek());
+    }
+
+    /**
+       The woken thread's pass, plus the granularity, must be below the
+       pass the running thread has reached. A lottery ranks no thread
+       above another, so it never preempts on wakeup.
+    */
+    boolean wakeupPreempts(ThreadCB running, long ran, ThreadCB woken, long granularity)
+    {
+        if(lottery)
+            return false;
+        long reached = SchedTable.pass[running.sched.slot] + running.sched.stride * ran / quantum;
+        return SchedTable.pass[woken.sched.slot] + woken.sched.stride * granularity / quantum < reached;
+    }
+
+    /** Heap order: re-adding a valid heap's array in order rebuilds the same array. */
+    void collect(List<ThreadCB> out)
+    {
+        for(int i = 0; i < heap.size(); i++)
+            out.add(heap.get(i));
+    }
+
+    void save(SchedulerCheckpoint cp) throws IOException
+    {
+        cp.out.writeLong(nextSeq);
+        cp.out.writeLong(globalPass);
+        cp.out.writeLong(random.getState());
+    }
+
+    void load(SchedulerCheckpoint cp) throws IOException
+    {
+        nextSeq = cp.in.readLong();
+        globalPass = cp.in.readLong();
+        random.setState(cp.in.readLong());
+    }
+
+    /** Keeps the saved pass and tie break instead of clamping and renumbering. */
+    void restore(ThreadCB thread)
+    {
+        totalTickets += thread.sched.tickets;
+        heap.add(thread);
+    }
+
+    /** Index of the lottery winner, weighted by tickets. */
+    private int draw()
+    {
+        long winner = (long)(random.nextDouble() * totalTickets);
+        return Math.min(draws.find(winner), heap.size() - 1);
+    }
+}
@@ -34,7 +34,30 @@ import osp.Resources.*;
 */
 public class ThreadCB extends IflThreadCB 
 {
-    private static GenericList readyQueue;
+    static ReadyQueue readyQueue;           // package access for SchedulerCheckpoint
+    static TaskCB lastTask;                 // task whose page table was loaded last
+    private static int quantum;
+    static boolean tickless;                // timer armed only while others are ready
+    private static boolean keepRunning;     // tickless: next dispatch renews the quantum
+    static AgingWheel aging;                // null when AgingBound is 0
+    static WaitIndex waitIndex;
+    static WaitForGraph waitFor;            // null when WaitForGraph is off
+    static AdmissionControl admission;      // null when Admission is off
+    static IdleWork idleWork;               // null when IdleWork is off
+    static boolean wakeupPreemption;        // wakeups preempt only a lower-ranked thread
+    private static long wakeupGranularity;
+    private static ThreadCB keepSlice;      // see wakeupDispatch()
+    private static long keepSliceAt;
+    private static int keptWakeups;         // wakeups waiting on that decision
+    private static long preemptedAt;        // tick of the last wakeup that preempted
+    static boolean handoffScheduling;       // port wakeups take over the waker's quantum
+    private static ThreadCB handoff;        // see handOff()
+    private static int handoffSlice;
+    private static long handoffAt;
+    private static ThreadCB lastDispatched; // the thread put on the CPU most recently
+    static SchedulerProfiler profiler;      // null when Profile is 0
+
+    SchedEntity sched;                      // scheduler state, null once killed
 
     /**
        The thread constructor. Must call 
@@ -48,6 +71,7 @@ public class ThreadCB extends IflThreadCB
     public ThreadCB()
     {
         super();
+        SchedEntity.attach(this);
     }
 
     /**
@@ -58,7 +82,28 @@ public class ThreadCB extends IflThreadCB
     */
     public static void init()
     {
-        readyQueue = new GenericList();
+        SchedulerParams.load();
+        readyQueue = ReadyQueue.configured();
+        quantum = SchedulerParams.getInt("Scheduler.Quantum", 50);
+        tickless = SchedulerParams.getFlag("Scheduler.Tickless", false);
+        lastTask = null;
+        long agingBound = SchedulerParams.getLong("Scheduler.AgingBound", 0);
+        aging = agingBound > 0 ? new AgingWheel(agingBound, HClock.get()) : null;
+        waitIndex = new WaitIndex();
+        waitFor = SchedulerParams.getFlag("Scheduler.WaitForGraph", false) ? new WaitForGraph() : null;
+        admission = AdmissionControl.configured(HClock.get());
+        idleWork = IdleWork.configured();
+        wakeupPreemption = SchedulerParams.getFlag("Scheduler.WakeupPreemption", false);
+        wakeupGranularity = SchedulerParams.getLong("Scheduler.WakeupGranularity", 0);
+        keepSlice = null;
+        keptWakeups = 0;
+        preemptedAt = -1;
+        handoffScheduling = SchedulerParams.getFlag("Scheduler.Handoff", false);
+        handoff = null;
+        lastDispatched = null;
+        profiler = SchedulerProfiler.configured();
+        SchedEntity.init();
+        SchedulerStats.init();
     }
 
     /** 
@@ -79,17 +124,40 @@ public class ThreadCB extends IflThreadCB
         @OSPProject Threads
     */
     public static ThreadCB do_create(TaskCB task)
+    {
+        if(profiler == null)
+            return createThread(task);
+        long start = profiler.enter(SchedulerProfiler.CREATE);
+        try
+        {
+            return createThread(task);
+        }
+        finally
+        {
+            profiler.exit(SchedulerProfiler.CREATE, start);
+        }
+    }
+
+    private static ThreadCB createThread(TaskCB task)
     {
         ThreadCB thread = null;
         if(task == null)                                    // #2
         {
-            ThreadCB.dispatch();
+            wakeupDispatch(null);
             return null;
         }
         
         if(task.getThreadCount() >= MaxThreadsPerTask)      // #3
         {
-            ThreadCB.dispatch();
+            wakeupDispatch(null);
+            return null;
+        }
+
+        int admit = admission == null ? AdmissionControl.ADMIT : admission.decide();
+        if(admit == AdmissionControl.REJECT)
+        {
+            SchedulerStats.threadsRejected++;
+            wakeupDispatch(null);
             return null;
         }
 
@@ -99,11 +167,20 @@ public class ThreadCB extends IflThreadCB
         thread.setTask(task);                               // #6
         if(task.addThread(thread) == 0)                     // #7
         {
-            ThreadCB.dispatch();
+            SchedEntity.detach(thread);
+            wakeupDispatch(null);
             return null;
         }
-        readyQueue.append(thread);                          // #8
-        ThreadCB.dispatch();                                // #9
+        if(admit == AdmissionControl.DEFER)
+        {
+            admission.defer(thread, HClock.get());          // ready, but held back
+            thread.sched.burstStart = HClock.get();
+            wakeupDispatch(null);
+            return thread;
+        }
+        makeReady(thread);                                  // #8
+        thread.sched.burstStart = SchedTable.readySince[thread.sched.slot];
+        wakeupDispatch(thread);                             // #9
         return thread;                                      // #10
         
     }
@@ -123,10 +200,29 @@ public class ThreadCB extends IflThreadCB
     */
     public void do_kill()
     {
+        if(profiler == null)
+        {
+            killThread();
+            return;
+        }
+        long start = profiler.enter(SchedulerProfiler.KILL);
+        try
+        {
+            killThread();
+        }
+        finally
+        {
+            profiler.exit(SchedulerProfiler.KILL, start);
+        }
+    }
+
+    private void killThread()
+    {
+        boolean wasRunning = false;
         switch(getStatus())                                                 // #1
         {
             case ThreadReady:                                               // #2
-                readyQueue.remove(this);
+                leaveReady(this);
             break;
             case ThreadRunning:                                             // #3
                 ThreadCB thread = null;
@@ -135,15 +231,28 @@ public class ThreadCB extends IflThreadCB
                     thread = MMU.getPTBR().getTask().getCurrentThread();
                     if(this == thread)
                     {
+                        wasRunning = true;
                         MMU.setPTBR(null);
                         getTask().setCurrentThread(null);					// Is this needed?
                     }
                 }
                 catch(NullPointerException e){}
             break;
+            default:
+                if(getStatus() >= ThreadWaiting)
+                    waitIndex.detachAll(this);
+            break;
         }
      
         
+        SchedulerStats.threadsKilled++;
+        if(sched != null)
+        {
+            readyQueue.killed(this);
+            if(waitFor != null)
+                waitFor.killed(this);
+            SchedEntity.detach(this);
+        }
         getTask().removeThread(this);                                       // #4
         setStatus(ThreadKill);                                              // #5
         
@@ -153,7 +262,10 @@ public class ThreadCB extends IflThreadCB
         }
         
         ResourceCB.giveupResources(this);                                   // #7 
-        ThreadCB.dispatch();                                                // #8
+        if(wasRunning)
+            ThreadCB.dispatch();                                            // #8
+        else
+            wakeupDispatch(null);
         if(getTask().getThreadCount() == 0)                                 // #9
         {
             getTask().kill();
@@ -178,6 +290,24 @@ public class ThreadCB extends IflThreadCB
         @OSPProject Threads
     */
     public void do_suspend(Event event)
+    {
+        if(profiler == null)
+        {
+            suspendThread(event);
+            return;
+        }
+        long start = profiler.enter(SchedulerProfiler.SUSPEND);
+        try
+        {
+            suspendThread(event);
+        }
+        finally
+        {
+            profiler.exit(SchedulerProfiler.SUSPEND, start);
+        }
+    }
+
+    private void suspendThread(Event event)
     {
         int status = getStatus();                                       // #1
         if(status>=ThreadWaiting)                                       // #4
@@ -198,27 +328,35 @@ public class ThreadCB extends IflThreadCB
             try
             {
                 thread = MMU.getPTBR().getTask().getCurrentThread();
-                if(this==thread)
-                {
-                    MMU.setPTBR(null);
-                    getTask().setCurrentThread(null);
-                    setStatus(ThreadWaiting);                           // #3 Check the location of this?
-                }
             }
             catch(NullPointerException e){}
-            
 
-            
+            if(this==thread)
+            {
+                MMU.setPTBR(null);
+                getTask().setCurrentThread(null);
+                setStatus(ThreadWaiting);                               // #3 Check the location of this?
+                charge(this, HClock.get() - SchedTable.runningSince[sched.slot]);
+                readyQueue.blocked(this);
+                if(sched.burstStart >= 0)
+                    SchedulerStats.turnarounds.add(HClock.get() - sched.burstStart);
+                sched.burstStart = -1;
+            }
         }
 
         if(!readyQueue.contains(this))
         {
             event.addThread(this);                                      // #6
+            waitIndex.suspended(this, event);
+            if(waitFor != null)
+                waitFor.suspended(this, event);
         }
         else
         {
-            readyQueue.remove(this);
+            leaveReady(this);
         }
+        if(getStatus() >= ThreadWaiting && SchedTable.state(sched.slot) != SchedTable.WAITING)
+            SchedTable.enter(sched.slot, SchedTable.WAITING, HClock.get());
         
 
         ThreadCB.dispatch();                                            // #7
@@ -236,6 +374,24 @@ public class ThreadCB extends IflThreadCB
     @OSPProject Threads
     */
     public void do_resume()
+    {
+        if(profiler == null)
+        {
+            resumeThread();
+            return;
+        }
+        long start = profiler.enter(SchedulerProfiler.RESUME);
+        try
+        {
+            resumeThread();
+        }
+        finally
+        {
+            profiler.exit(SchedulerProfiler.RESUME, start);
+        }
+    }
+
+    private void resumeThread()
     {
         if(getStatus() < ThreadWaiting) {
             MyOut.print(this, "Attempt to resume " + this + ", which wasn't waiting");
@@ -245,6 +401,17 @@ public class ThreadCB extends IflThreadCB
         // Message to indicate we are attempting to resume this thread
         MyOut.print(this, "Resuming " + this);
         
+        Event from = waitIndex.innermost(this);
+        waitIndex.resumed(this);
+        if(waitFor != null)
+            waitFor.resumed(this);
+        if(from instanceof IflPortCB)
+        {
+            // A message arrived, or room for one: whoever ran last did that
+            sched.portWoken = HClock.get();
+            sched.donor = lastDispatched != this ? lastDispatched : null;
+        }
+
         // Set the thread's status
         if(this.getStatus() == ThreadWaiting) {
             setStatus(ThreadReady);
@@ -254,10 +421,13 @@ public class ThreadCB extends IflThreadCB
         
         // Put the thread on the ready queue, if appropriate
         if (getStatus() == ThreadReady) {
-            readyQueue.append(this);
+            makeReady(this);
+            sched.burstStart = SchedTable.readySince[sched.slot];
+            if(!handOff(this))
+                wakeupDispatch(this);
         }
-        
-        dispatch(); // dispatch a thread
+        else
+            wakeupDispatch(null);
     }
 
     /** 
@@ -275,7 +445,52 @@ public class ThreadCB extends IflThreadCB
     */
     public static int do_dispatch()
     {
+        if(profiler == null)
+            return dispatchThread();
+        long start = profiler.enter(SchedulerProfiler.DISPATCH);
+        try
+        {
+            return dispatchThread();
+        }
+        finally
+        {
+            profiler.exit(SchedulerProfiler.DISPATCH, start);
+        }
+    }
+
+    private static int dispatchThread()
+    {
+        long started = System.nanoTime();
         ThreadCB thread = null;
+
+        if(keepSlice != null)                           // see wakeupDispatch()
+        {
+            ThreadCB kept = keepSlice;
+            keepSlice = null;
+            int wakeups = keptWakeups;
+            keptWakeups = 0;
+            if(keepSliceAt == HClock.get() && kept == runningThread())
+            {
+                SchedulerStats.wakeupsKept += wakeups;
+                SchedulerStats.dispatchTime(System.nanoTime() - started);
+                return SUCCESS;
+            }
+        }
+
+        if(keepRunning)                                 // see quantumExpired()
+        {
+            keepRunning = false;
+            SchedulerStats.quantaExtended++;
+            if(!readyQueue.isEmpty())
+                HTimer.set(quantum);
+            else
+                stopTimer();
+            ThreadCB running = runningThread();
+            if(running != null)
+                armWithin(readyQueue.budgetLeft(running));
+            SchedulerStats.dispatchTime(System.nanoTime() - started);
+            return SUCCESS;
+        }
         
         
         try
@@ -284,30 +499,94 @@ public class ThreadCB extends IflThreadCB
         }
         catch(NullPointerException e){}
         
+        long now = HClock.get();
+        int slice = quantum;
+        ThreadCB preempted = thread;
         if(thread != null)                                          // #2
         {
             thread.getTask().setCurrentThread(null);
             MMU.setPTBR(null);
             thread.setStatus(ThreadReady);
-            readyQueue.append(thread);
+            charge(thread, now - SchedTable.runningSince[thread.sched.slot]);
+            makeReady(thread);
         }
         
+        SchedulerStats.tick(now);
+        if(admission != null)
+        {
+            for(ThreadCB held; (held = admission.release(now)) != null; )
+                makeReady(held);
+        }
+
         if(readyQueue.isEmpty())                                    // #4
         {
             MMU.setPTBR(null);
+            SchedulerStats.idleDispatches++;
+            SchedulerStats.idle(now);
+            if(tickless)
+                stopTimer();
+            armRelease(now);
+            if(idleWork != null)
+                armWithin(idleWork.idle(now));
+            SchedulerStats.dispatchTime(System.nanoTime() - started);
             return FAILURE;
         }
         
         else
         {
-            thread = (ThreadCB) readyQueue.removeHead();            // #3
+            thread = aging == null ? null : aging.overdue(now);     // #3
+            if(thread != null)
+            {
+                readyQueue.removeForced(thread);
+                SchedulerStats.forcedDispatches++;
+            }
+            else if(handoff != null && handoffAt == now && readyQueue.contains(handoff))
+            {
+                thread = handoff;
+                readyQueue.removeForced(thread);
+                slice = handoffSlice;
+                SchedulerStats.handoffs++;
+                SchedulerStats.ticksDonated += slice;
+            }
+            else
+            {
+                thread = readyQueue.removeNext(preempted);
+            }
+            handoff = null;
+            if(aging != null)
+                aging.cancel(thread);
+            SchedTable.dispatched(thread.sched.slot, now);
+            lastDispatched = thread;
+            if(thread.sched.portWoken >= 0)
+            {
+                SchedulerStats.portLatencies.add(now - thread.sched.portWoken);
+                thread.sched.portWoken = -1;
+            }
+            SchedulerStats.dispatches++;
+            SchedulerStats.busy(now, thread != preempted);
+            if(idleWork != null)
+                idleWork.busy(now);
+            SchedulerStats.readyWait(now - SchedTable.readySince[thread.sched.slot]);
+            if(admission != null)
+                admission.waited(now, now - SchedTable.readySince[thread.sched.slot]);
+            if(thread.getTask() != lastTask)
+            {
+                SchedulerStats.addressSpaceSwitches++;
+                lastTask = thread.getTask();
+            }
             MMU.setPTBR(thread.getTask().getPageTable());           // #5
             thread.getTask().setCurrentThread(thread);              // #6
             thread.setStatus(ThreadRunning);                        // #7
 
         }
         
-        HTimer.set(50);                                             // #8
+        if(!tickless || !readyQueue.isEmpty())
+            HTimer.set(slice);                                      // #8
+        else
+            stopTimer();
+        armWithin(readyQueue.budgetLeft(thread));
+        armRelease(now);
+        SchedulerStats.dispatchTime(System.nanoTime() - started);
         return SUCCESS;                                             // #9
     }
 
@@ -342,6 +621,204 @@ public class ThreadCB extends IflThreadCB
        Feel free to add methods/fields to improve the readability of your code
     */
 
+    /**
+       Appends a thread to the tail of the ready queue and notes when
+       it got there, so the dispatcher can tell how long it waited.
+    */
+    static void makeReady(ThreadCB thread)
+    {
+        long now = HClock.get();
+        SchedTable.ready(thread.sched.slot, now);
+        readyQueue.add(thread);
+        SchedulerStats.readyLength(readyQueue.size());
+        if(aging != null)
+            aging.schedule(thread, now);
+        if(tickless)
+            armTimer();
+    }
+
+    /**
+       Calls dispatch() after a thread became ready (woken) or after
+       something that readies no thread at all (woken null), such as
+       the death of a thread that was not running. With
+       WakeupPreemption on, the running thread keeps the CPU and the
+       rest of its quantum unless the policy ranks woken strictly
+       higher; dispatch() is still called, as OSP expects.
+
+       OSP never dispatches at once: dispatch() queues a dispatch event
+       for the same tick. So the decision stays pending, like a port
+       handoff, and the next dispatch of that tick keeps the runner if
+       it is still on the CPU. Once one wakeup of a tick preempts, the
+       others of that tick cannot keep the runner either. A wakeup
+       counts as kept only when the dispatch actually kept the runner;
+       a timer interrupt at the same tick withdraws the decision.
+    */
+    private static void wakeupDispatch(ThreadCB woken)
+    {
+        ThreadCB running = wakeupPreemption ? runningThread() : null;
+        if(running != null)
+        {
+            long now = HClock.get();
+            long ran = now - SchedTable.runningSince[running.sched.slot];
+            if(woken != null && readyQueue.wakeupPreempts(running, ran, woken, wakeupGranularity))
+            {
+                SchedulerStats.wakeupPreemptions++;
+                if(keepSlice != null && keepSliceAt == now)
+                    SchedulerStats.wakeupPreemptions += keptWakeups;
+                withdrawKeep();
+            }
+            else if(preemptedAt == now)
+                SchedulerStats.wakeupPreemptions++;
+            else
+            {
+                if(keepSlice != running || keepSliceAt != now)
+                    keptWakeups = 0;
+                keepSlice = running;
+                keepSliceAt = now;
+                keptWakeups++;
+            }
+        }
+        dispatch();
+    }
+
+    /**
+       The runner is to lose the CPU this tick after all: drops any
+       pending decision to keep it, and any later at the same tick.
+    */
+    static void withdrawKeep()
+    {
+        keepSlice = null;
+        keptWakeups = 0;
+        preemptedAt = HClock.get();
+    }
+
+    /**
+       Port handoff: a thread woken by a port message, or by room for
+       one, runs next, for what is left of the quantum of the thread
+       whose port operation woke it. That happens only if the waker is
+       on the CPU, which it then gives up, or the CPU is idle, and only
+       if the waker has some of its quantum left. The woken thread is
+       charged for the ticks it runs as usual, so between them the two
+       threads get no more CPU than one quantum would have given. The
+       aging bound still comes first. OSP often runs the dispatch()
+       later, as an event at the same tick, so the handoff stays
+       pending until the first dispatch of that tick.
+
+       @return whether the dispatch was done
+    */
+    private static boolean handOff(ThreadCB thread)
+    {
+        ThreadCB donor = thread.sched.donor;
+        thread.sched.donor = null;
+        if(!handoffScheduling || donor == null || donor.sched == null)
+            return false;
+        ThreadCB running = runningThread();
+        if(running != null && running != donor)
+            return false;
+        long left = quantum - (HClock.get() - SchedTable.runningSince[donor.sched.slot]);
+        if(left <= 0)
+            return false;
+
+        handoff = thread;
+        handoffSlice = (int)left;
+        handoffAt = HClock.get();
+        dispatch();
+        return true;
+    }
+
+    /** The thread on the CPU, or null if it is idle. */
+    private static ThreadCB runningThread()
+    {
+        PageTable table = MMU.getPTBR();
+        return table == null ? null : table.getTask().getCurrentThread();
+    }
+
+    /**
+       Tickless mode: a thread just became ready, so a thread running
+       without a timer now has competition. It gets what is left of its
+       quantum, at least one tick.
+    */
+    private static void armTimer()
+    {
+        ThreadCB running = runningThread();
+        if(running == null || HTimer.get() > 0)
+            return;
+
+        long left = quantum - (HClock.get() - SchedTable.runningSince[running.sched.slot]);
+        HTimer.set((int)Math.max(1, left));
+    }
+
+    /**
+       A thread the policy holds back on the ready queue, an EDF job
+       before its release, needs a dispatch once it has its deadline
+       to compete with: the timer goes off by then at the latest.
+    */
+    private static void armRelease(long now)
+    {
+        armWithin(readyQueue.heldFor(now));
+    }
+
+    /** Makes the timer go off within the given ticks, if they are more than 0. */
+    private static void armWithin(long ticks)
+    {
+        if(ticks > 0 && (HTimer.get() <= 0 || HTimer.get() > ticks))
+            HTimer.set((int)ticks);
+    }
+
+    /** Tickless mode: nobody needs the CPU taken away, so no interrupt. */
+    private static void stopTimer()
+    {
+        if(HTimer.get() >= 0)              // may be due this very tick
+            HTimer.set(0);
+    }
+
+    /**
+       Tickless mode: called by the timer interrupt handler when a
+       quantum is up. The running thread is charged for the ticks it
+       used and starts a new quantum. It is switched out only if the
+       policy prefers a ready thread, or one is past the aging bound;
+       otherwise the dispatch OSP expects after every timer interrupt
+       just renews the quantum, setting the timer only while some
+       thread is ready.
+    */
+    static void quantumExpired()
+    {
+        ThreadCB running = runningThread();
+        if(running != null)
+        {
+            long now = HClock.get();
+            charge(running, now - SchedTable.runningSince[running.sched.slot]);
+            SchedTable.runningSince[running.sched.slot] = now;
+            keepRunning = readyQueue.isEmpty()
+                || !((aging != null && aging.overdue(now) != null) || readyQueue.preempts(running));
+        }
+        dispatch();
+    }
+
+    /** Charges a thread for ticks of CPU, to the policy and in its SchedTable row. */
+    private static void charge(ThreadCB thread, long ticks)
+    {
+        readyQueue.charge(thread, ticks);
+        SchedTable.ran(thread.sched.slot, ticks);
+    }
+
+    /**
+       Takes a thread off the ready queue without dispatching it.
+    */
+    private static void leaveReady(ThreadCB thread)
+    {
+        if(admission != null && admission.isDeferred(thread))
+        {
+            admission.remove(thread);
+            return;
+        }
+        readyQueue.remove(thread);
+        if(aging != null)
+            aging.cancel(thread);
+        if(tickless && readyQueue.isEmpty())
+            stopTimer();
+    }
+
 }
 
 /*
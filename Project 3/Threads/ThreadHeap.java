@@ -0,0 +1,134 @@
+/* OSP2 Threads - binary heap of threads
+ *
+ * Shared by the policies that order ready threads by a key (stride
+ * pass, absolute deadline, ...). Each thread remembers its slot in
+ * heapIndex, so removing an arbitrary thread is O(log n). A thread is
+ * in at most one heap at a time.
+ */
+
+package osp.Threads;
+
+/**
+   Array-backed min-heap of threads. Subclasses define the order.
+
+   @OSPProject Threads
+*/
+abstract class ThreadHeap
+{
+    private ThreadCB[] heap = new ThreadCB[16];
+    private int size;
+
+    /** True if a should come off the heap before b. */
+    abstract boolean before(ThreadCB a, ThreadCB b);
+
+    /** The thread now sits in slot i. For subclasses that index by slot. */
+    void placed(int i, ThreadCB thread)
+    {
+    }
+
+    /** Slot i, the last one, was emptied. */
+    void vacated(int i)
+    {
+    }
+
+    void add(ThreadCB thread)
+    {
+        if(size == heap.length)
+        {
+            ThreadCB[] bigger = new ThreadCB[size * 2];
+            System.arraycopy(heap, 0, bigger, 0, size);
+            heap = bigger;
+        }
+        size++;
+        put(size - 1, thread);
+        siftUp(size - 1);
+    }
+
+    boolean contains(ThreadCB thread)
+    {
+        int i = thread.sched.heapIndex;
+        return i >= 0 && i < size && heap[i] == thread;
+    }
+
+    void remove(ThreadCB thread)
+    {
+        if(contains(thread))
+            removeAt(thread.sched.heapIndex);
+    }
+
+    ThreadCB peek()
+    {
+        return size == 0 ? null : heap[0];
+    }
+
+    ThreadCB get(int i)
+    {
+        return heap[i];
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    ThreadCB removeAt(int i)
+    {
+        ThreadCB thread = heap[i];
+        thread.sched.heapIndex = -1;
+
+        size--;
+        if(i != size)
+        {
+            put(i, heap[size]);
+            siftDown(i);
+            siftUp(i);
+        }
+        heap[size] = null;
+        vacated(size);
+        return thread;
+    }
+
+    private void put(int i, ThreadCB thread)
+    {
+        heap[i] = thread;
+        thread.sched.heapIndex = i;
+        placed(i, thread);
+    }
+
+    private void siftUp(int i)
+    {
+        ThreadCB thread = heap[i];
+        while(i > 0)
+        {
+            int parent = (i - 1) / 2;
+            if(!before(thread, heap[parent]))
+                break;
+            put(i, heap[parent]);
+            i = parent;
+        }
+        put(i, thread);
+    }
+
+    private void siftDown(int i)
+    {
+        ThreadCB thread = heap[i];
+        while(true)
+        {
+            int child = 2 * i + 1;
+            if(child >= size)
+                break;
+            if(child + 1 < size && before(heap[child + 1], heap[child]))
+                child++;
+            if(!before(heap[child], thread))
+                break;
+            put(i, heap[child]);
+            i = child;
+        }
+        put(i, thread);
+    }
+}
@@ -0,0 +1,60 @@
+/* OSP2 Threads - ticket sums for the lottery draw
+ *
+ * A Fenwick (binary indexed) tree over the slots of the stride heap.
+ * Slot i holds the tickets of the thread sitting there, and every node
+ * holds the sum of a power-of-two run of slots ending at it, so both
+ * changing a slot and finding the slot in which the running total first
+ * passes a number take O(log n). The draw then picks the same thread a
+ * walk over the slots in order would.
+ */
+
+package osp.Threads;
+
+/**
+   Prefix sums of tickets by heap slot.
+
+   @OSPProject Threads
+*/
+class TicketTree
+{
+    private long[] slot = new long[16];             // tickets in each slot
+    private long[] tree = new long[17];             // 1-based Fenwick nodes
+
+    void set(int i, long tickets)
+    {
+        if(i >= slot.length)
+            grow(i);
+        long delta = tickets - slot[i];
+        if(delta == 0)
+            return;
+        slot[i] = tickets;
+        for(int n = i + 1; n < tree.length; n += n & -n)
+            tree[n] += delta;
+    }
+
+    /** The first slot whose running total exceeds winner. */
+    int find(long winner)
+    {
+        int n = 0;
+        for(int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1)
+        {
+            int next = n + step;
+            if(next < tree.length && tree[next] <= winner)
+            {
+                n = next;
+                winner -= tree[next];
+            }
+        }
+        return n;
+    }
+
+    /** The nodes depend on the length, so a bigger tree is rebuilt. */
+    private void grow(int i)
+    {
+        long[] old = slot;
+        slot = new long[Math.max(old.length * 2, i + 1)];
+        tree = new long[slot.length + 1];
+        for(int j = 0; j < old.length; j++)
+            set(j, old[j]);
+    }
+}
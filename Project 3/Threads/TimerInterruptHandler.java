@@ -27,14 +27,40 @@ public class TimerInterruptHandler extends IflTimerInterruptHandler
 {
     /**
        This basically only needs to reset the times and dispatch
-       another process.
+       another process. In tickless mode the scheduler first checks
+       whether a switch is warranted at all.
 
        @OSPProject Threads
     */
     public void do_handleInterrupt()
     {
-        ThreadCB.dispatch();
+        SchedulerProfiler profiler = ThreadCB.profiler;
+        if(profiler == null)
+        {
+            expire();
+            return;
+        }
+        long start = profiler.enter(SchedulerProfiler.TIMER);
+        try
+        {
+            expire();
+        }
+        finally
+        {
+            profiler.exit(SchedulerProfiler.TIMER, start);
+        }
+    }
 
+    private void expire()
+    {
+        SchedulerStats.timerInterrupts++;
+        ThreadCB.withdrawKeep();                // the quantum is up, whatever a wakeup decided
+        if(ThreadCB.readyQueue.isEmpty())
+            SchedulerStats.idleTimerInterrupts++;
+        if(ThreadCB.tickless)
+            ThreadCB.quantumExpired();
+        else
+            ThreadCB.dispatch();
     }
 
 
@@ -0,0 +1,221 @@
+/* OSP2 Threads - incremental wait-for graph
+ *
+ * OSP looks for deadlocks by scanning the whole resource table every
+ * DetectionInterval ticks, so a deadlock can go unnoticed for most of
+ * an interval. The scheduler already sees every thread block, wake and
+ * die, so with WaitForGraph on it keeps the wait-for graph up to date
+ * instead: an edge from each waiting thread to every thread holding
+ * what it waits for. Whenever an edge is added the graph is searched
+ * from its far end, and if that leads back to the waiting thread a
+ * cycle has just closed: the deadlock is reported on the tick it forms.
+ * The search only visits threads that are themselves waiting, so it
+ * costs nothing like a scan of the whole table.
+ *
+ * Who holds what is the resource manager's business. It tells the
+ * graph through a Holders callback, and calls holdersChanged() when an
+ * allocation changes under a thread that is already waiting. OSP.jar
+ * exposes no such information, so under OSP the graph stays empty;
+ * the standalone kernel simulates resources (Kernel.Resources 1) and
+ * provides it.
+ */
+
+package osp.Threads;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import osp.IFLModules.*;
+import osp.Utilities.*;
+import osp.Hardware.*;
+
+/**
+   Wait-for graph of blocked threads with cycle detection on insertion.
+
+   @OSPProject Threads
+*/
+public class WaitForGraph
+{
+    /** The resource manager's view of who holds what. */
+    public interface Holders
+    {
+        /** Adds to out the threads holding what a thread waiting on event waits for. */
+        void holders(Event event, List<ThreadCB> out);
+    }
+
+    private static Holders holders;
+
+    private List<ThreadCB> found = new ArrayList<ThreadCB>();
+    private boolean[] fresh = new boolean[16];
+    private ThreadCB[] stack = new ThreadCB[16];
+    private int[] next = new int[16];       // per stack entry, the next edge to follow
+    private int mark;                       // visit stamp of the current search
+    private long interval;                  // OSP's DetectionInterval, to compare with
+
+    WaitForGraph()
+    {
+        interval = SchedulerParams.getLong("Resources.DetectionInterval", 20000);
+    }
+
+    /** Installs the resource manager's callback. */
+    public static void setHolders(Holders h)
+    {
+        holders = h;
+    }
+
+    /**
+       An allocation changed under the threads waiting on event: their
+       edges are recomputed, and any that are new checked for a cycle.
+    */
+    public static void holdersChanged(Event event)
+    {
+        WaitForGraph graph = ThreadCB.waitFor;
+        if(graph == null || holders == null)
+            return;
+        List<ThreadCB> waiting = ThreadCB.waitIndex.waiters(event);
+        for(int i = 0; i < waiting.size(); i++)
+        {
+            ThreadCB thread = waiting.get(i);
+            if(thread.sched != null && ThreadCB.waitIndex.innermost(thread) == event)
+                graph.link(thread, event);
+        }
+    }
+
+    /** A thread started waiting on event. */
+    void suspended(ThreadCB thread, Event event)
+    {
+        if(holders != null)
+            link(thread, event);
+    }
+
+    /**
+       A thread was woken from its innermost event; if it still waits
+       on an outer one, its edges now lead to that one's holders.
+    */
+    void resumed(ThreadCB thread)
+    {
+        clear(thread);
+        Event outer = ThreadCB.waitIndex.innermost(thread);
+        if(outer != null && holders != null)
+            link(thread, outer);
+    }
+
+    /** A thread died; edges that lead to it are skipped from now on. */
+    void killed(ThreadCB thread)
+    {
+        clear(thread);
+    }
+
+    private static void clear(ThreadCB thread)
+    {
+        SchedEntity s = thread.sched;
+        for(int i = 0; i < s.waitsForCount; i++)
+            s.waitsFor[i] = null;
+        s.waitsForCount = 0;
+    }
+
+    /** Sets the thread's edges to the holders of event, checking the new ones. */
+    private void link(ThreadCB thread, Event event)
+    {
+        found.clear();
+        holders.holders(event, found);
+        for(int i = found.size() - 1; i >= 0; i--)
+        {
+            if(found.get(i) == thread || found.get(i).sched == null)
+                found.remove(i);
+        }
+
+        // Edges the thread had already were checked when they were added
+        SchedEntity s = thread.sched;
+        int n = found.size();
+        if(fresh.length < n)
+            fresh = new boolean[2 * n];
+        for(int i = 0; i < n; i++)
+        {
+            fresh[i] = true;
+            for(int j = 0; j < s.waitsForCount && fresh[i]; j++)
+                fresh[i] = s.waitsFor[j] != found.get(i);
+        }
+
+        if(s.waitsFor.length < n)
+            s.waitsFor = new ThreadCB[2 * n];
+        for(int i = n; i < s.waitsForCount; i++)
+            s.waitsFor[i] = null;
+        for(int i = 0; i < n; i++)
+            s.waitsFor[i] = found.get(i);
+        s.waitsForCount = n;
+
+        for(int i = 0; i < n; i++)
+        {
+            if(fresh[i])
+                check(thread, found.get(i));
+        }
+    }
+
+    /**
+       The edge thread -> holder was just added: a deadlock if holder
+       leads back to thread.
+    */
+    private void check(ThreadCB thread, ThreadCB holder)
+    {
+        mark++;
+        int depth = 0;
+        push(depth++, holder);
+        holder.sched.waitsMark = mark;
+        while(depth > 0)
+        {
+            ThreadCB t = stack[depth-1];
+            if(t == thread)
+            {
+                deadlock(depth);
+                return;
+            }
+            SchedEntity s = t.sched;
+            if(next[depth-1] == s.waitsForCount)
+            {
+                depth--;
+                continue;
+            }
+            ThreadCB u = s.waitsFor[next[depth-1]++];
+            if(u.sched != null && u.sched.waitsMark != mark)
+            {
+                u.sched.waitsMark = mark;
+                push(depth++, u);
+            }
+        }
+    }
+
+    private void push(int depth, ThreadCB thread)
+    {
+        if(depth == stack.length)
+        {
+            ThreadCB[] s = new ThreadCB[2 * depth];
+            System.arraycopy(stack, 0, s, 0, depth);
+            stack = s;
+            int[] n = new int[2 * depth];
+            System.arraycopy(next, 0, n, 0, depth);
+            next = n;
+        }
+        stack[depth] = thread;
+        next[depth] = 0;
+    }
+
+    /**
+       The search stack is the cycle: the thread that just started
+       waiting is on top, the thread it waits for at the bottom.
+    */
+    private void deadlock(int length)
+    {
+        long now = HClock.get();
+        SchedulerStats.deadlocksFound++;
+        if(length > SchedulerStats.maxDeadlockSize)
+            SchedulerStats.maxDeadlockSize = length;
+        if(interval > 0)
+            SchedulerStats.scanDelay += (now / interval + 1) * interval - now;
+
+        StringBuffer cycle = new StringBuffer("Deadlock at tick " + now + ": ");
+        cycle.append(stack[length-1]);
+        for(int i = 0; i < length; i++)
+            cycle.append(" waits for ").append(stack[i]);
+        MyOut.print("osp.Threads.ThreadCB", cycle.toString());
+    }
+}
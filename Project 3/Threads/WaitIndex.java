@@ -0,0 +1,152 @@
+/* OSP2 Threads - thread/event wait index
+ *
+ * do_suspend hands a thread to an event with event.addThread() and
+ * otherwise only tracks nesting through the ThreadWaiting+n status.
+ * This index remembers both directions: the stack of events each
+ * thread is waiting on, and the threads waiting on each event.
+ *
+ * OSP resumes a nested waiter from the innermost event outwards, so a
+ * resume simply pops the top of the thread's stack. Killing a waiting
+ * thread detaches it from every event it is on without searching the
+ * event queues. Each stack entry also records the thread's slot in the
+ * event's waiter list, so leaving the list is a swap with its last
+ * entry rather than a search.
+ */
+
+package osp.Threads;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import osp.IFLModules.*;
+
+/**
+   Bidirectional index between waiting threads and events.
+
+   @OSPProject Threads
+*/
+class WaitIndex
+{
+    private IdentityHashMap<Event,ArrayList<ThreadCB>> waiters =
+        new IdentityHashMap<Event,ArrayList<ThreadCB>>();
+    private int entries;                // (thread, event) pairs in the index
+
+    /** Records that a thread was put on an event's waiting queue. */
+    void suspended(ThreadCB thread, Event event)
+    {
+        if(thread.sched.waitDepth == thread.sched.waitStack.length)
+        {
+            Event[] bigger = new Event[thread.sched.waitDepth * 2];
+            System.arraycopy(thread.sched.waitStack, 0, bigger, 0, thread.sched.waitDepth);
+            thread.sched.waitStack = bigger;
+            int[] slots = new int[bigger.length];
+            System.arraycopy(thread.sched.waitSlot, 0, slots, 0, thread.sched.waitDepth);
+            thread.sched.waitSlot = slots;
+        }
+
+        ArrayList<ThreadCB> list = waiters.get(event);
+        if(list == null)
+        {
+            list = new ArrayList<ThreadCB>(2);
+            waiters.put(event, list);
+        }
+        thread.sched.waitSlot[thread.sched.waitDepth] = list.size();
+        thread.sched.waitStack[thread.sched.waitDepth++] = event;
+        list.add(thread);
+        entries++;
+
+        if(list.size() > SchedulerStats.maxEventWaiters)
+            SchedulerStats.maxEventWaiters = list.size();
+        if(thread.sched.waitDepth > SchedulerStats.maxWaitDepth)
+            SchedulerStats.maxWaitDepth = thread.sched.waitDepth;
+        gauge();
+    }
+
+    /** The threads waiting on an event, in no particular order; do not modify. */
+    List<ThreadCB> waiters(Event event)
+    {
+        List<ThreadCB> list = waiters.get(event);
+        return list != null ? list : Collections.<ThreadCB>emptyList();
+    }
+
+    /** The event a thread will be woken from next, or null if it waits on none. */
+    Event innermost(ThreadCB thread)
+    {
+        return thread.sched.waitDepth == 0 ? null : thread.sched.waitStack[thread.sched.waitDepth - 1];
+    }
+
+    /** Records that a thread was woken from its innermost event. */
+    void resumed(ThreadCB thread)
+    {
+        if(thread.sched.waitDepth == 0)
+            return;
+
+        Event event = thread.sched.waitStack[--thread.sched.waitDepth];
+        thread.sched.waitStack[thread.sched.waitDepth] = null;
+        unlink(event, thread.sched.waitSlot[thread.sched.waitDepth]);
+        gauge();
+    }
+
+    /**
+       Takes a thread off every event it is waiting on. Used when a
+       waiting thread is killed.
+    */
+    void detachAll(ThreadCB thread)
+    {
+        while(thread.sched.waitDepth > 0)
+        {
+            Event event = thread.sched.waitStack[--thread.sched.waitDepth];
+            thread.sched.waitStack[thread.sched.waitDepth] = null;
+            if(event.contains(thread))
+                event.removeThread(thread);
+            unlink(event, thread.sched.waitSlot[thread.sched.waitDepth]);
+            SchedulerStats.killDetaches++;
+        }
+        gauge();
+    }
+
+    /** Number of indexed threads waiting on the event. */
+    int waitersOf(Event event)
+    {
+        ArrayList<ThreadCB> list = waiters.get(event);
+        return list == null ? 0 : list.size();
+    }
+
+    /**
+       Removes the waiter in the given slot of an event's list by moving
+       the last waiter into it, and tells that waiter where it now is.
+    */
+    private void unlink(Event event, int slot)
+    {
+        ArrayList<ThreadCB> list = waiters.get(event);
+        if(list == null || slot >= list.size())
+            return;
+
+        int last = list.size() - 1;
+        ThreadCB moved = list.remove(last);
+        if(slot != last)
+        {
+            list.set(slot, moved);
+            SchedEntity s = moved.sched;
+            for(int i = s == null ? -1 : s.waitDepth - 1; i >= 0; i--)
+            {
+                if(s.waitStack[i] == event && s.waitSlot[i] == last)
+                {
+                    s.waitSlot[i] = slot;
+                    break;
+                }
+            }
+        }
+        entries--;
+        if(list.isEmpty())
+            waiters.remove(event);
+    }
+
+    private void gauge()
+    {
+        SchedulerStats.eventsWaitedOn = waiters.size();
+        SchedulerStats.waitEntries = entries;
+    }
+}
@@ -0,0 +1,152 @@
+/* OSP2 Threads - workload generator
+ *
+ * Writes params.osp variants for a profile and a thread count, starting
+ * from an existing parameter file so that devices, file system and
+ * scheduler settings carry over.
+ *
+ *     java -classpath .:OSP.jar osp.Threads.WorkloadGenerator \
+ *          -profile io -threads 20000 [-length 50000] \
+ *          [-base Misc/params.osp] [-set Scheduler.Policy=Stride] -out big.osp
+ */
+
+package osp.Threads;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+   Generates parameter files for synthetic workloads.
+
+   @OSPProject Threads
+*/
+public class WorkloadGenerator
+{
+    /**
+       Copies the base parameter file to out, replacing the given
+       "Section.Key" settings. Keys missing from the base file are
+       added at the end of their section, or in a new section.
+    */
+    static void write(File base, Map<String,String> settings, File out) throws IOException
+    {
+        Map<String,String> pending = new LinkedHashMap<String,String>(settings);
+        List<String> lines = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new FileReader(base));
+        try
+        {
+            String section = "";
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                String t = line.trim();
+                if(t.startsWith("[") && t.endsWith("]"))
+                {
+                    flush(section, pending, lines);
+                    section = t.substring(1, t.length()-1).trim();
+                }
+                else if(t.length() > 0 && !t.startsWith("#"))
+                {
+                    String key = section + "." + t.split("\\s+", 2)[0];
+                    if(pending.containsKey(key))
+                        line = t.split("\\s+", 2)[0] + " " + pending.remove(key);
+                }
+                lines.add(line);
+            }
+            flush(section, pending, lines);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        // Whatever is left belongs to sections the base file does not have
+        while(!pending.isEmpty())
+        {
+            String key = pending.keySet().iterator().next();
+            String section = key.substring(0, key.indexOf('.'));
+            lines.add("");
+            lines.add("[" + section + "]");
+            flush(section, pending, lines);
+        }
+
+        if(out.getParentFile() != null)
+            out.getParentFile().mkdirs();
+        PrintWriter w = new PrintWriter(new FileWriter(out));
+        try
+        {
+            for(String l : lines)
+                w.println(l);
+        }
+        finally
+        {
+            w.close();
+        }
+    }
+
+    /** Appends the pending settings of one section, before its trailing blank lines. */
+    private static void flush(String section, Map<String,String> pending, List<String> lines)
+    {
+        int at = lines.size();
+        while(at > 0 && lines.get(at-1).trim().length() == 0)
+            at--;
+
+        List<String> done = new ArrayList<String>();
+        for(Map.Entry<String,String> e : pending.entrySet())
+        {
+            if(e.getKey().startsWith(section + "."))
+            {
+                lines.add(at++, e.getKey().substring(section.length()+1) + " " + e.getValue());
+                done.add(e.getKey());
+            }
+        }
+        for(String k : done)
+            pending.remove(k);
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        WorkloadProfile profile = WorkloadProfile.PHASED;
+        int threads = 13;
+        long length = 250000;
+        File base = new File(SchedulerParams.PARAMS_FILE);
+        File out = null;
+        Map<String,String> extra = new LinkedHashMap<String,String>();
+
+        for(int i = 0; i + 1 < args.length; i += 2)
+        {
+            if(args[i].equals("-profile"))
+                profile = WorkloadProfile.named(args[i+1]);
+            else if(args[i].equals("-threads"))
+                threads = Integer.parseInt(args[i+1]);
+            else if(args[i].equals("-length"))
+                length = Long.parseLong(args[i+1]);
+            else if(args[i].equals("-base"))
+                base = new File(args[i+1]);
+            else if(args[i].equals("-out"))
+                out = new File(args[i+1]);
+            else if(args[i].equals("-set"))
+            {
+                String[] kv = args[i+1].split("=", 2);
+                extra.put(kv[0], kv[1]);
+            }
+        }
+        if(out == null)
+        {
+            System.err.println("usage: WorkloadGenerator -profile cpu|io|bursty|phased"
+                               + " -threads N [-length T] [-base file] [-set Section.Key=value] -out file");
+            System.exit(1);
+        }
+
+        Map<String,String> settings = profile.params(threads, length);
+        settings.putAll(extra);
+        write(base, settings, out);
+        System.out.println("Wrote " + out + " (" + profile.shortName + ", " + threads + " threads)");
+    }
+}
@@ -0,0 +1,155 @@
+/* OSP2 Threads - synthetic workload profiles
+ *
+ * A profile describes how the threads of a workload behave. It has two
+ * halves:
+ *
+ *  - the params.osp settings that push OSP's event generator towards
+ *    that behaviour (event mix, event rate, memory locality, thread
+ *    life), used by WorkloadGenerator;
+ *  - a burst model: how long a thread computes before it blocks, and
+ *    how long it then waits, drawn from a seeded Random so that a
+ *    workload can be replayed exactly.
+ *
+ * OSP's own generator is stationary, so the bursty and phase-changing
+ * profiles can only be approximated through params.osp; the burst
+ * model describes them exactly.
+ */
+
+package osp.Threads;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+   Thread behaviour profiles for generated workloads.
+
+   @OSPProject Threads
+*/
+public enum WorkloadProfile
+{
+    /** Long computations, few page faults, little I/O. */
+    CPU_BOUND("cpu", 400, 80, 0, 0)
+    {
+        void tune(Map<String,String> p)
+        {
+            p.put("General.AverageTicksBetweenEvents", "200");
+            p.put("General.MemoryEventPercentage", "60");
+            p.put("General.FileSysEventPercentage", "10");
+            p.put("General.PortEventPercentage", "15");
+            p.put("General.ResourceEventPercentage", "15");
+            p.put("Memory.UseLocalAccessPattern", "1");
+        }
+    },
+
+    /** Short computations between disk and port operations. */
+    IO_BOUND("io", 20, 400, 0, 0)
+    {
+        void tune(Map<String,String> p)
+        {
+            p.put("General.AverageTicksBetweenEvents", "40");
+            p.put("General.MemoryEventPercentage", "30");
+            p.put("General.FileSysEventPercentage", "55");
+            p.put("General.PortEventPercentage", "10");
+            p.put("General.ResourceEventPercentage", "5");
+            p.put("Memory.UseLocalAccessPattern", "0");
+        }
+    },
+
+    /** Threads arrive in batches and die young. */
+    BURSTY("bursty", 60, 150, 8, 0)
+    {
+        void tune(Map<String,String> p)
+        {
+            p.put("General.AverageTicksBetweenEvents", "20");
+            p.put("Threads.ThreadLifeExpectancy", "1000");
+        }
+    },
+
+    /** Threads switch between CPU-bound and I/O-bound phases. */
+    PHASED("phased", 200, 200, 0, 5000)
+    {
+        void tune(Map<String,String> p)
+        {
+            p.put("General.AverageTicksBetweenEvents", "70");
+            p.put("General.MemoryEventPercentage", "45");
+            p.put("General.FileSysEventPercentage", "35");
+            p.put("General.PortEventPercentage", "10");
+            p.put("General.ResourceEventPercentage", "10");
+        }
+    };
+
+    public final String shortName;
+    final long meanCpuBurst;            // ticks computed before blocking
+    final long meanIoWait;              // ticks blocked afterwards
+    public final int batch;             // threads created together, 0 for steady arrivals
+    final long phaseLength;             // ticks per CPU/IO phase, 0 for a single phase
+
+    WorkloadProfile(String shortName, long meanCpuBurst, long meanIoWait, int batch, long phaseLength)
+    {
+        this.shortName = shortName;
+        this.meanCpuBurst = meanCpuBurst;
+        this.meanIoWait = meanIoWait;
+        this.batch = batch;
+        this.phaseLength = phaseLength;
+    }
+
+    /** Adjusts event mix and rate settings ("Section.Key" to value) for the profile. */
+    abstract void tune(Map<String,String> params);
+
+    /**
+       Settings for a system of about the given number of threads. The
+       number of tasks grows with the thread count, keeping tasks in
+       the 10 to 60 thread range OSP's defaults use.
+    */
+    public Map<String,String> params(int threads, long length)
+    {
+        Map<String,String> p = new LinkedHashMap<String,String>();
+        int tasks = Math.max(4, threads / 40);
+        p.put("General.SimulationLength", Long.toString(length));
+        p.put("General.SimulationOutputFlag", "0");
+        p.put("General.ModuleOutputFlag", "0");
+        p.put("Tasks.AverageNumberOfTasks", Integer.toString(tasks));
+        p.put("Tasks.MaxTasks", Integer.toString(tasks + tasks / 2));
+        p.put("Threads.AverageNumberOfThreads", Integer.toString(threads));
+        p.put("Threads.MaxThreadsPerTask", Integer.toString(Math.max(15, 3 * threads / tasks)));
+        tune(p);
+        return p;
+    }
+
+    /** True while a thread of this profile is in an I/O-bound phase. */
+    boolean ioPhase(long now)
+    {
+        return phaseLength > 0 && (now / phaseLength) % 2 == 1;
+    }
+
+    /** Draws the length of the next CPU burst. */
+    public long cpuBurst(Random random, long now)
+    {
+        long mean = ioPhase(now) ? meanIoWait / 10 : meanCpuBurst;
+        return 1 + exponential(random, mean);
+    }
+
+    /** Draws how long a thread waits after a burst. */
+    public long ioWait(Random random, long now)
+    {
+        long mean = ioPhase(now) ? meanCpuBurst * 2 : meanIoWait;
+        return 1 + exponential(random, mean);
+    }
+
+    private static long exponential(Random random, long mean)
+    {
+        return (long)(-mean * Math.log(1 - random.nextDouble()));
+    }
+
+    /** Looks a profile up by its short name ("cpu", "io", ...) or enum name. */
+    public static WorkloadProfile named(String name)
+    {
+        for(WorkloadProfile p : values())
+        {
+            if(p.shortName.equalsIgnoreCase(name) || p.name().equalsIgnoreCase(name))
+                return p;
+        }
+        throw new IllegalArgumentException("Unknown workload profile " + name);
+    }
+}